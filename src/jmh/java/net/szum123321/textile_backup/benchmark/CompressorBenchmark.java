@@ -0,0 +1,94 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.benchmark;
+
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.create.compressors.AbstractCompressor;
+import net.szum123321.textile_backup.core.create.compressors.ParallelZipCompressor;
+import net.szum123321.textile_backup.core.create.compressors.ZipCompressor;
+import net.szum123321.textile_backup.core.create.compressors.tar.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time it takes to compress the synthetic world with each of the formats. Run with different core limits to see how they scale
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompressorBenchmark {
+    @Param({ "ZIP", "PARALLEL_ZIP", "GZIP", "BZIP2", "LZMA", "ZSTD", "LZ4", "TAR" })
+    public String format;
+
+    //0 means all the available cores
+    @Param({ "1", "4", "0" })
+    public int coreLimit;
+
+    @Param({ "16" })
+    public int regions;
+
+    private Path tempDir, world, archive;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        SyntheticWorld.setupConfig();
+
+        tempDir = Files.createTempDirectory("textile_benchmark");
+        world = tempDir.resolve("world");
+        archive = tempDir.resolve("backup");
+
+        SyntheticWorld.generate(world, regions, 2137);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Utilities.deleteDirectory(tempDir);
+    }
+
+    @Benchmark
+    public long compress() throws Exception {
+        Files.deleteIfExists(archive);
+        Files.createFile(archive);
+
+        compressor(format).createArchive(world, archive, SyntheticWorld.context(), cores(coreLimit), null);
+
+        return Files.size(archive);
+    }
+
+    static AbstractCompressor compressor(String format) {
+        return switch (format) {
+            case "ZIP" -> ZipCompressor.getInstance();
+            case "PARALLEL_ZIP" -> ParallelZipCompressor.getInstance();
+            case "GZIP" -> ParallelGzipCompressor.getInstance();
+            case "BZIP2" -> ParallelBZip2Compressor.getInstance();
+            case "LZMA" -> ParallelXZCompressor.getInstance();
+            case "ZSTD" -> ParallelZstdCompressor.getInstance();
+            case "LZ4" -> ParallelLZ4Compressor.getInstance();
+            case "TAR" -> new AbstractTarArchiver();
+            default -> throw new IllegalArgumentException("Unknown format: " + format);
+        };
+    }
+
+    static int cores(int limit) {
+        return limit <= 0 ? Runtime.getRuntime().availableProcessors() : Math.min(limit, Runtime.getRuntime().availableProcessors());
+    }
+}
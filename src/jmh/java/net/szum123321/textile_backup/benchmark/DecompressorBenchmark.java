@@ -0,0 +1,78 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.benchmark;
+
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.restore.decompressors.GenericTarDecompressor;
+import net.szum123321.textile_backup.core.restore.decompressors.ZipDecompressor;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restore throughput. The archive is made once per trial, and every invocation unpacks it into an empty directory
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecompressorBenchmark {
+    @Param({ "ZIP", "GZIP", "BZIP2", "LZMA", "ZSTD", "LZ4", "TAR" })
+    public String format;
+
+    @Param({ "16" })
+    public int regions;
+
+    private Path tempDir, archive, target;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        SyntheticWorld.setupConfig();
+
+        tempDir = Files.createTempDirectory("textile_benchmark");
+        Path world = tempDir.resolve("world");
+        archive = tempDir.resolve("backup");
+        target = tempDir.resolve("restored");
+
+        SyntheticWorld.generate(world, regions, 2137);
+
+        Files.createFile(archive);
+        CompressorBenchmark.compressor(format).createArchive(world, archive, SyntheticWorld.context(), CompressorBenchmark.cores(0), null);
+
+        Utilities.deleteDirectory(world);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Utilities.deleteDirectory(tempDir);
+    }
+
+    @Setup(Level.Invocation)
+    public void clean() throws Exception {
+        if(Files.exists(target)) Utilities.deleteDirectory(target);
+        Files.createDirectories(target);
+    }
+
+    @Benchmark
+    public long decompress() throws Exception {
+        if(format.equals("ZIP")) return ZipDecompressor.decompress(archive, target);
+        return GenericTarDecompressor.decompress(archive, target);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.benchmark;
+
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many tiny files reported at once from a number of threads, which is what ParallelZip does on a world full of small files.
+ * Only the tree hash bookkeeping is measured, the files themselves aren't hashed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileTreeHashBuilderBenchmark {
+    private static final int FILES = 1 << 18;
+
+    @Param({ "1", "4", "16", "64" })
+    public int threads;
+
+    private Path[] paths;
+    private ExecutorService executorService;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SyntheticWorld.setupConfig();
+
+        paths = new Path[FILES];
+        for(int i = 0; i < FILES; i++) paths[i] = Path.of("data", "f" + i + ".dat");
+
+        executorService = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    public long update() throws Exception {
+        FileTreeHashBuilder builder = new FileTreeHashBuilder(FILES, HashAlgorithm.BALTIC);
+        int share = FILES / threads;
+
+        for(int t = 0; t < threads; t++) {
+            int from = t * share;
+            executorService.execute(() -> {
+                try {
+                    for(int i = from; i < from + share; i++) builder.update(paths[i], i * 0x9E3779B97F4A7C15L, 64);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+        return builder.getValue(true);
+    }
+}
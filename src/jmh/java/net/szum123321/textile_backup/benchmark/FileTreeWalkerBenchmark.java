@@ -0,0 +1,61 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.benchmark;
+
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.create.FileTreeWalker;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing the world, which happens before any compression can start. Mostly measures the blacklist and attribute reads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileTreeWalkerBenchmark {
+    @Param({ "16", "64" })
+    public int regions;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private Path world;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        SyntheticWorld.setupConfig();
+
+        world = Files.createTempDirectory("textile_benchmark");
+        SyntheticWorld.generate(world, regions, 2137);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Utilities.deleteDirectory(world);
+    }
+
+    @Benchmark
+    public int walk() throws Exception {
+        return FileTreeWalker.walk(world, threads).size();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.benchmark;
+
+import net.szum123321.textile_backup.core.digest.BalticHash;
+import net.szum123321.textile_backup.core.digest.XXH3Hash;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Raw hashing speed over an in memory buffer. Small sizes show the per call overhead, the large one the steady state
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HashBenchmark {
+    @Param({ "64", "4096", "1048576" })
+    public int size;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(2137).nextBytes(data);
+    }
+
+    @Benchmark
+    public long baltic() {
+        BalticHash hash = new BalticHash();
+        hash.update(data, 0, data.length);
+        return hash.getValue();
+    }
+
+    @Benchmark
+    public long xxh3() {
+        XXH3Hash hash = new XXH3Hash();
+        hash.update(data, 0, data.length);
+        return hash.getValue();
+    }
+
+    @Benchmark
+    public long crc32() {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    @Benchmark
+    public long crc32c() {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.benchmark;
+
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.config.ConfigPOJO;
+import net.szum123321.textile_backup.core.ActionInitiator;
+import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import net.szum123321.textile_backup.core.region.RegionFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates a world directory which looks like a real one to the compressors: region files with zlib compressed chunks,
+ * gzipped NBT files, plain json and a pile of tiny files. Same seed always gives the same world.
+ */
+public class SyntheticWorld {
+    private static final int SECTION_BLOCKS = 16 * 16 * 16;
+    private static final int TINY_FILES_PER_REGION = 128;
+
+    /**
+     * The benchmarks run outside the game, so the config has to be provided by hand
+     */
+    public static ConfigPOJO setupConfig() {
+        ConfigPOJO config = new ConfigPOJO();
+        ConfigHelper.updateInstance(config);
+        return config;
+    }
+
+    public static ExecutableBackup context() {
+        return new ExecutableBackup(null, null, ActionInitiator.Timer, false, false, null, LocalDateTime.now());
+    }
+
+    public static void generate(Path root, int regions, long seed) throws IOException {
+        Random random = new Random(seed);
+
+        Files.createDirectories(root);
+        Files.write(root.resolve("level.dat"), gzip(nbt(random, 2048)));
+        Files.write(root.resolve("session.lock"), new byte[] { (byte) 0xE2, (byte) 0x98, (byte) 0x83 });
+
+        Path region = Files.createDirectories(root.resolve("region"));
+        Path entities = Files.createDirectories(root.resolve("entities"));
+        Path data = Files.createDirectories(root.resolve("data"));
+        Path players = Files.createDirectories(root.resolve("playerdata"));
+        Path stats = Files.createDirectories(root.resolve("stats"));
+        Path structures = Files.createDirectories(root.resolve("generated/minecraft/structures"));
+
+        int side = (int) Math.ceil(Math.sqrt(regions));
+
+        for(int i = 0; i < regions; i++) {
+            String name = "r." + (i % side - side / 2) + "." + (i / side - side / 2) + RegionFile.EXTENSION;
+
+            Files.write(region.resolve(name), region(random, 256 + random.nextInt(512), 16));
+            Files.write(entities.resolve(name), region(random, 64 + random.nextInt(128), 1));
+
+            //Maps, raids, scoreboard and such
+            Files.write(data.resolve("map_" + i + ".dat"), gzip(nbt(random, 16 * 1024)));
+
+            UUID player = new UUID(random.nextLong(), random.nextLong());
+            Files.write(players.resolve(player + ".dat"), gzip(nbt(random, 4 * 1024 + random.nextInt(8 * 1024))));
+            Files.writeString(stats.resolve(player + ".json"), json(random, 200));
+
+            //Structure files, advancements, function files etc. Mostly tiny
+            for(int j = 0; j < TINY_FILES_PER_REGION; j++) {
+                byte[] tiny = new byte[16 + random.nextInt(240)];
+                random.nextBytes(tiny);
+                Files.write(structures.resolve("s_" + i + "_" + j + ".nbt"), tiny);
+            }
+        }
+    }
+
+    /**
+     * Region file with the given number of chunks scattered over the 32x32 slots
+     */
+    private static byte[] region(Random random, int chunks, int sections) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(RegionFile.HEADER_SIZE);
+        out.write(header.array());
+
+        int sector = RegionFile.HEADER_SIZE / RegionFile.SECTOR_SIZE;
+
+        for(int n = 0; n < chunks; n++) {
+            int slot = random.nextInt(RegionFile.SLOTS);
+            if(header.getInt(slot * Integer.BYTES) != 0) continue;
+
+            byte[] chunk = deflate(chunk(random, sections));
+
+            ByteBuffer payload = ByteBuffer.allocate(chunk.length + 5);
+            payload.putInt(chunk.length + 1).put((byte) 2).put(chunk);
+
+            int count = (payload.capacity() + RegionFile.SECTOR_SIZE - 1) / RegionFile.SECTOR_SIZE;
+            out.write(payload.array());
+            out.write(new byte[count * RegionFile.SECTOR_SIZE - payload.capacity()]);
+
+            header.putInt(slot * Integer.BYTES, (sector << 8) | count);
+            header.putInt(RegionFile.SECTOR_SIZE + slot * Integer.BYTES, random.nextInt());
+            sector += count;
+        }
+
+        byte[] result = out.toByteArray();
+        System.arraycopy(header.array(), 0, result, 0, RegionFile.HEADER_SIZE);
+
+        return result;
+    }
+
+    /**
+     * Block states of a chunk. Small palettes, long runs of the same block and some noise near the surface
+     */
+    private static byte[] chunk(Random random, int sections) {
+        byte[] blocks = new byte[sections * SECTION_BLOCKS];
+
+        for(int s = 0; s < sections; s++) {
+            int palette = 1 + random.nextInt(12);
+            byte current = 0;
+
+            for(int i = 0; i < SECTION_BLOCKS; i++) {
+                if(random.nextInt(16) == 0) current = (byte) random.nextInt(palette);
+                blocks[s * SECTION_BLOCKS + i] = current;
+            }
+        }
+
+        return blocks;
+    }
+
+    /**
+     * Not a real NBT, but with the same mix of tag names and random values
+     */
+    private static byte[] nbt(Random random, int size) {
+        String[] names = { "Pos", "Motion", "Rotation", "Health", "Inventory", "id", "Count", "Slot", "UUID", "Dimension" };
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        while(buffer.remaining() > 16) {
+            byte[] name = names[random.nextInt(names.length)].getBytes();
+            buffer.put((byte) (1 + random.nextInt(12))).putShort((short) name.length).put(name);
+            buffer.putLong(random.nextInt(4) == 0 ? random.nextLong() : random.nextInt(64));
+        }
+
+        return buffer.array();
+    }
+
+    private static String json(Random random, int entries) {
+        StringBuilder builder = new StringBuilder("{\"stats\":{\"minecraft:custom\":{");
+
+        for(int i = 0; i < entries; i++) {
+            if(i > 0) builder.append(',');
+            builder.append("\"minecraft:stat_").append(i).append("\":").append(random.nextInt(100000));
+        }
+
+        return builder.append("}},\"DataVersion\":3953}").toString();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream deflate = new DeflaterOutputStream(out)) {
+            deflate.write(data);
+        }
+        return out.toByteArray();
+    }
+}
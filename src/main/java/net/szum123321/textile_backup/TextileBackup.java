@@ -39,8 +39,11 @@ import net.szum123321.textile_backup.commands.restore.RestoreBackupCommand;
 import net.szum123321.textile_backup.config.ConfigHelper;
 import net.szum123321.textile_backup.config.ConfigPOJO;
 import net.szum123321.textile_backup.core.ActionInitiator;
+import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.create.BackupScheduler;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import net.szum123321.textile_backup.core.create.compressors.ParallelZipWriter;
+import net.szum123321.textile_backup.core.restore.WorldSwap;
 
 public class TextileBackup implements ModInitializer {
     public static final String MOD_NAME = "Textile Backup";
@@ -64,10 +67,14 @@ public class TextileBackup implements ModInitializer {
         ServerTickEvents.END_SERVER_TICK.register(BackupScheduler::tick);
 
         //Restart Executor Service in single-player
-        ServerLifecycleEvents.SERVER_STARTING.register(server -> {
-            Globals.INSTANCE.resetQueueExecutor();
-            Globals.INSTANCE.updateTMPFSFlag(server);
-        });
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> Globals.INSTANCE.resetQueueExecutor());
+
+        //Worlds replaced by a restore are only deleted once the server is back up, same for what's left of a restore interrupted by a crash
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> WorldSwap.cleanup(Utilities.getWorldFolder(server)));
+
+        //Zip spill files of a backup which got interrupted by a crash
+        ServerLifecycleEvents.SERVER_STARTED.register(server ->
+                ParallelZipWriter.deleteSpillFiles(Utilities.getBackupRootPath(Utilities.getLevelName(server))));
 
         //Wait 60s for already submitted backups to finish. After that kill the bastards and run the one last if required
         ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
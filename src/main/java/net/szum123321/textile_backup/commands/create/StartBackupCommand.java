@@ -26,8 +26,7 @@ import net.szum123321.textile_backup.Globals;
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
-
-import javax.annotation.Nullable;
+import org.jetbrains.annotations.Nullable;
 
 public class StartBackupCommand {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
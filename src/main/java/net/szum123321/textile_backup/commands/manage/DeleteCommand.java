@@ -28,6 +28,7 @@ import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.commands.CommandExceptions;
 import net.szum123321.textile_backup.commands.FileSuggestionProvider;
+import net.szum123321.textile_backup.core.ArchiveIndex;
 import net.szum123321.textile_backup.core.RestoreableFile;
 import net.szum123321.textile_backup.core.Utilities;
 
@@ -67,6 +68,7 @@ public class DeleteCommand {
                     if(Globals.INSTANCE.getLockedFile().filter(p -> p == file).isEmpty()) {
                         try {
                             Files.delete((Path) file);
+                            ArchiveIndex.delete((Path) file);
                             log.sendInfo(source, "File {} successfully deleted!", file);
 
                             if(Utilities.wasSentByPlayer(source))
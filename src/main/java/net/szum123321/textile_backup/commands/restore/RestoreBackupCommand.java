@@ -32,8 +32,8 @@ import net.szum123321.textile_backup.commands.FileSuggestionProvider;
 import net.szum123321.textile_backup.core.RestoreableFile;
 import net.szum123321.textile_backup.core.restore.RestoreContext;
 import net.szum123321.textile_backup.core.restore.RestoreHelper;
+import org.jetbrains.annotations.Nullable;
 
-import javax.annotation.Nullable;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
 import java.util.Objects;
@@ -49,14 +49,41 @@ public class RestoreBackupCommand {
                         .executes(ctx -> execute(
                                 StringArgumentType.getString(ctx, "file"),
                                 null,
+                                null,
+                                false,
                                 ctx.getSource()
                         ))
+                ).then(CommandManager.argument("file", StringArgumentType.word())
+                        .suggests(FileSuggestionProvider.Instance())
+                        .then(CommandManager.literal("--only")
+                                .then(CommandManager.argument("pattern", StringArgumentType.greedyString())
+                                        .executes(ctx -> execute(
+                                                StringArgumentType.getString(ctx, "file"),
+                                                null,
+                                                StringArgumentType.getString(ctx, "pattern"),
+                                                false,
+                                                ctx.getSource()
+                                        ))
+                                )
+                        ).then(CommandManager.literal("--live")
+                                .then(CommandManager.argument("pattern", StringArgumentType.greedyString())
+                                        .executes(ctx -> execute(
+                                                StringArgumentType.getString(ctx, "file"),
+                                                null,
+                                                StringArgumentType.getString(ctx, "pattern"),
+                                                true,
+                                                ctx.getSource()
+                                        ))
+                                )
+                        )
                 ).then(CommandManager.argument("file", StringArgumentType.word())
                         .suggests(FileSuggestionProvider.Instance())
                         .then(CommandManager.argument("comment", StringArgumentType.word())
                                 .executes(ctx -> execute(
                                         StringArgumentType.getString(ctx, "file"),
                                         StringArgumentType.getString(ctx, "comment"),
+                                        null,
+                                        false,
                                         ctx.getSource()
                                         ))
                         )
@@ -67,12 +94,14 @@ public class RestoreBackupCommand {
                     log.sendInfo(source, "[YEAR]-[MONTH]-[DAY]_[HOUR].[MINUTE].[SECOND]");
                     log.sendInfo(source, "Example: /backup restore 2020-08-05_10.58.33");
                     log.sendInfo(source, "You may also type '/backup restore latest' to restore the freshest backup");
+                    log.sendInfo(source, "To restore only some of the files add: --only [PATTERN], e.g. --only region/r.0.*.mca");
+                    log.sendInfo(source, "Region files can be restored without a restart with: --live [PATTERN], e.g. --live DIM-1/region/*");
 
                     return 1;
                 });
     }
 
-    private static int execute(String file, @Nullable String comment, ServerCommandSource source) throws CommandSyntaxException {
+    private static int execute(String file, @Nullable String comment, @Nullable String only, boolean live, ServerCommandSource source) throws CommandSyntaxException {
         if(Globals.INSTANCE.getAwaitThread().filter(Thread::isAlive).isPresent()) {
             log.sendInfo(source, "Someone has already started another restoration.");
 
@@ -101,15 +130,15 @@ public class RestoreBackupCommand {
         } else {
             log.info("Found file to restore {}", backupFile.get().getFile().getFileName().toString());
 
-            Globals.INSTANCE.setAwaitThread(
-                    RestoreHelper.create(
-                            RestoreContext.Builder.newRestoreContextBuilder()
-                                    .setCommandSource(source)
-                                    .setFile(backupFile.get())
-                                    .setComment(comment)
-                                    .build()
-                    )
-            );
+            var builder = RestoreContext.Builder.newRestoreContextBuilder()
+                    .setCommandSource(source)
+                    .setFile(backupFile.get())
+                    .setComment(comment)
+                    .setOnly(only);
+
+            if(live) builder.live();
+
+            Globals.INSTANCE.setAwaitThread(RestoreHelper.create(builder.build()));
 
             Globals.INSTANCE.getAwaitThread().get().start();
 
@@ -23,10 +23,17 @@ import me.shedaniel.autoconfig.ConfigHolder;
 public class ConfigHelper {
     public static final ConfigHelper INSTANCE = new ConfigHelper();
     private ConfigHolder<ConfigPOJO> configHolder;
+    //Used when running outside the game (benchmarks), where there's no AutoConfig
+    private ConfigPOJO standalone;
 
     public static void updateInstance(ConfigHolder<ConfigPOJO> ch) { INSTANCE.configHolder = ch; }
 
-    public ConfigPOJO get() { return configHolder.get(); }
+    public static void updateInstance(ConfigPOJO config) {
+        INSTANCE.configHolder = null;
+        INSTANCE.standalone = config;
+    }
 
-    public void save() { configHolder.save(); }
+    public ConfigPOJO get() { return configHolder != null ? configHolder.get() : standalone; }
+
+    public void save() { if(configHolder != null) configHolder.save(); }
 }
@@ -24,6 +24,7 @@ import me.shedaniel.autoconfig.ConfigData;
 import me.shedaniel.autoconfig.annotation.Config;
 import me.shedaniel.autoconfig.annotation.ConfigEntry;
 import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
 
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -71,12 +72,25 @@ public class ConfigPOJO implements ConfigData {
 
     @Comment("""
             \nThis setting allows you to exclude files form being backed-up.
+            Paths are relative to the world folder. Excluding a folder excludes everything inside it.
+            * and ? match within a single folder or file name, ** matches any number of folders,
+            for example: "region/r.-*.mca" or "**/*.tmp"
             Be very careful when setting it, as it is easy corrupt your world!
             """)
     @ConfigEntry.Gui.NoTooltip()
     @ConfigEntry.Category("Create")
     public List<String> fileBlacklist = new ArrayList<>();
 
+    @Comment("""
+            \nNumber of incremental backups to make in between two full ones.
+            An incremental backup only contains the files which have changed since the previous backup,
+            so restoring it requires all the backups back to the last full one.
+            When set to 0 every backup is a full one
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    public int incrementalBackupChainLength = 0;
+
     @Comment("\nShould backups be deleted after being restored?\n")
     @ConfigEntry.Gui.NoTooltip()
     @ConfigEntry.Category("Restore")
@@ -97,7 +111,7 @@ public class ConfigPOJO implements ConfigData {
     @ConfigEntry.Gui.Tooltip()
     public long maxSize = 0;
 
-    @Comment("\nCompression level \n0 - 9\n Only affects zip compression.\n")
+    @Comment("\nCompression level \n0 - 9\n Only affects zip, LZMA and CAS compression.\n")
     @ConfigEntry.Gui.Tooltip()
     @ConfigEntry.BoundedDiscrete(max = 9)
     @ConfigEntry.Category("Create")
@@ -111,11 +125,31 @@ public class ConfigPOJO implements ConfigData {
     @ConfigEntry.Category("Create")
     public int compressionCoreCountLimit = 0;
 
+    @Comment("""
+            \nMemory in MiB the parallel zip compressor may use to hold compressed files until they can be written out.
+            Files which don't fit are written to a temporary file in the backup folder instead
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    public int zipMemoryBudget = 256;
+
+    @Comment("""
+            \nCopy the world before compressing it, so that world saving can be turned back on right after.
+            Needs enough free space in the backup folder for a whole copy of the world
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    public boolean snapshotBeforeCompression = false;
+
     @Comment("""
             \nAvailable formats are:
             ZIP - normal zip archive using standard deflate compression
             GZIP - tar.gz using gzip compression
             TAR - .tar with no compression
+            LZMA - tar.xz using LZMA2 compression. Best compression ratio, but also the slowest
+            ZSTD - tar.zst using zstd compression. Much faster than GZIP at a similar ratio
+            LZ4 - tar.lz4 using lz4 compression. Fastest, at the cost of bigger backups. Good for frequent backups
+            CAS - deduplicating chunk store kept in the objects directory. Each backup only stores the chunks that have changed
             """)
     @ConfigEntry.Gui.Tooltip()
     @ConfigEntry.Category("Create")
@@ -169,11 +203,28 @@ public class ConfigPOJO implements ConfigData {
     @ConfigEntry.Gui.EnumHandler(option = ConfigEntry.Gui.EnumHandler.EnumDisplayOption.BUTTON)
     public IntegrityVerificationMode integrityVerificationMode = IntegrityVerificationMode.STRICT;
 
+    @Comment("""
+            \nHash used to verify the backups. Restore always uses the one the backup was made with
+            BALTIC - default, 64 bit
+            CRC32C - hardware accelerated on most CPUs, fastest by far. Only 32 bit
+            XXH3 - 64 bit, faster than BALTIC on large files
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    @ConfigEntry.Gui.EnumHandler(option = ConfigEntry.Gui.EnumHandler.EnumDisplayOption.BUTTON)
+    public HashAlgorithm hashAlgorithm = HashAlgorithm.DEFAULT;
+
     @Override
     public void validatePostLoad() throws ValidationException {
+        if(incrementalBackupChainLength < 0)
+            throw new ValidationException("incrementalBackupChainLength cannot be negative!");
+
         if(compressionCoreCountLimit > Runtime.getRuntime().availableProcessors())
             throw new ValidationException("compressionCoreCountLimit is too high! Your system only has: " + Runtime.getRuntime().availableProcessors() + " cores!");
 
+        if(zipMemoryBudget < 1)
+            throw new ValidationException("zipMemoryBudget has to be at least 1 MiB!");
+
         try {
             DateTimeFormatter.ofPattern(dateTimeFormat);
         } catch (IllegalArgumentException e) {
@@ -199,7 +250,10 @@ public class ConfigPOJO implements ConfigData {
         GZIP("tar", "gz"),
         BZIP2("tar", "bz2"),
         LZMA("tar", "xz"),
-        TAR("tar");
+        TAR("tar"),
+        ZSTD("tar", "zst"),
+        LZ4("tar", "lz4"),
+        CAS("cas");
 
         private final List<String> extensionPieces;
 
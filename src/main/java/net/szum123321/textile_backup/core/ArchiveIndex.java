@@ -0,0 +1,136 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.digest.Hash;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Kept next to every backup as [backup name].idx. Lists the entries of the archive together with their sizes and hashes,
+ * so that a few files can be restored and verified without unpacking the whole thing.
+ * <br><br>
+ * Zip and CAS can find their entries on their own. For tar, offset is where the entry's data starts in the uncompressed tar stream,
+ * and layout tells how to get there:
+ * <ul>
+ *     <li>RAW - plain tar, the offset is also the position in the file</li>
+ *     <li>BLOCKS - made of independent blocks of blockSize bytes. blockOffsets holds where each one starts in the file,
+ *     anything before the first one is a header which has to be put in front of the block</li>
+ *     <li>STREAM - can only be read from the start</li>
+ * </ul>
+ */
+public record ArchiveIndex(HashAlgorithm hashAlgorithm, Layout layout, int blockSize, long[] blockOffsets, Map<String, Entry> entries) implements Serializable {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    public static final String SUFFIX = ".idx";
+
+    public enum Layout {
+        NATIVE,
+        RAW,
+        BLOCKS,
+        STREAM
+    }
+
+    /**
+     * @param offset -1 if not known
+     * @param hash same as the one the tree hash is built from. Not set for the status file
+     */
+    public record Entry(long offset, long size, long hash) implements Serializable { }
+
+    public boolean isSeekable() { return layout == Layout.RAW || layout == Layout.BLOCKS; }
+
+    //Block holding the given offset of the uncompressed stream. Plain tar is treated as one big block
+    public int blockOf(long offset) { return layout == Layout.BLOCKS ? (int) (offset / blockSize) : 0; }
+
+    //Offset in the uncompressed stream the block starts at
+    public long uncompressedStart(int block) { return (long) block * blockSize; }
+
+    //Position in the file the block starts at
+    public long compressedStart(int block) { return layout == Layout.BLOCKS ? blockOffsets[block] : 0; }
+
+    public int headerSize() { return layout == Layout.BLOCKS && blockOffsets.length > 0 ? (int) blockOffsets[0] : 0; }
+
+    /**
+     * Hashes the restored files the same way they were hashed when the backup was made, and compares them with the index
+     * @return error message, if any of the files didn't match
+     */
+    public Optional<String> verify(Path directory, Predicate<String> filter) throws IOException {
+        for(var entry: entries.entrySet()) {
+            if(entry.getKey().equals(CompressionStatus.DATA_FILENAME) || !filter.test(entry.getKey())) continue;
+
+            //The index could be damaged or edited by hand, it mustn't lead outside of the restored files
+            Path file = Utilities.resolveEntry(directory, entry.getKey());
+            if(Files.notExists(file)) return Optional.of("File missing from the backup: " + entry.getKey());
+
+            Hash hash = hashAlgorithm.create();
+            byte[] buffer = new byte[64 * 1024];
+
+            try (InputStream in = Files.newInputStream(file)) {
+                int n;
+                while((n = in.read(buffer)) != -1) hash.update(buffer, 0, n);
+            }
+
+            hash.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+
+            if(hash.getValue() != entry.getValue().hash())
+                return Optional.of("Hash mismatch of: " + entry.getKey());
+        }
+
+        return Optional.empty();
+    }
+
+    public static Path resolve(Path backup) {
+        return backup.resolveSibling(backup.getFileName() + SUFFIX);
+    }
+
+    public static Optional<ArchiveIndex> read(Path backup) {
+        Path file = resolve(backup);
+
+        //Backups made before the index was introduced
+        if(Files.notExists(file)) return Optional.empty();
+
+        try(InputStream i = Files.newInputStream(file);
+            ObjectInputStream obj = new ObjectInputStream(new BufferedInputStream(i))) {
+            return Optional.of((ArchiveIndex) obj.readObject());
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.error("An exception occurred while trying to read the archive index of: {}", backup.getFileName(), e);
+        }
+
+        return Optional.empty();
+    }
+
+    public void write(Path backup) throws IOException {
+        try(OutputStream o = Files.newOutputStream(resolve(backup));
+            ObjectOutputStream obj = new ObjectOutputStream(new BufferedOutputStream(o))) {
+            obj.writeObject(this);
+        }
+    }
+
+    public static void delete(Path backup) throws IOException {
+        Files.deleteIfExists(resolve(backup));
+    }
+}
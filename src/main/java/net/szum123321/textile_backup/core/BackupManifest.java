@@ -0,0 +1,82 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Describes the state of the world at the time the last backup was made. It's kept next to the backups and used to decide
+ * which files have to be put into the next incremental backup.
+ * <br><br>
+ * lastBackup is the file name of the backup this manifest describes, chainLength is the number of incremental backups
+ * made since the last full one.
+ */
+public record BackupManifest(String lastBackup, int chainLength, Map<String, FileState> files) implements Serializable {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    public static final String DATA_FILENAME = "textile_manifest.data";
+
+    public boolean isUnchanged(String name, long size, long lastModified) {
+        FileState state = files.get(name);
+        return state != null && state.size() == size && state.lastModified() == lastModified;
+    }
+
+    public static Optional<BackupManifest> readFromDirectory(Path directory) {
+        Path file = directory.resolve(DATA_FILENAME);
+
+        if(Files.notExists(file)) return Optional.empty();
+
+        try(InputStream i = Files.newInputStream(file);
+            ObjectInputStream obj = new ObjectInputStream(new BufferedInputStream(i))) {
+            return Optional.of((BackupManifest) obj.readObject());
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.error("An exception occurred while trying to read the backup manifest! Next backup will be a full one.", e);
+        }
+
+        return Optional.empty();
+    }
+
+    public void writeToDirectory(Path directory) throws IOException {
+        Path tmp = directory.resolve(DATA_FILENAME + ".tmp");
+
+        try(OutputStream o = Files.newOutputStream(tmp);
+            ObjectOutputStream obj = new ObjectOutputStream(new BufferedOutputStream(o))) {
+            obj.writeObject(this);
+        }
+
+        //So that a crash in the middle of writing won't leave us with a half-written manifest
+        Files.move(tmp, directory.resolve(DATA_FILENAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void deleteFromDirectory(Path directory) throws IOException {
+        Files.deleteIfExists(directory.resolve(DATA_FILENAME));
+    }
+
+    /**
+     * @param chunkHashes hashes of all the chunk slots, only kept for region files. null otherwise
+     */
+    public record FileState(long size, long lastModified, long hash, long[] chunkHashes) implements Serializable { }
+}
@@ -0,0 +1,173 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * File blacklist compiled into a trie of path segments. A segment can be a literal name, a glob (* and ?),
+ * or ** which matches any number of segments, including none.
+ * <br><br>
+ * A pattern excludes the path it matches together with everything under it, so plain entries like "data/raids.dat"
+ * or "DIM-1" work just as they used to.
+ */
+public class BlacklistMatcher {
+    private final List<String> source;
+    private final Node root = new Node(false);
+    //Nodes reachable before reading any segment
+    private final List<Node> start;
+    private final boolean empty;
+
+    public BlacklistMatcher(List<String> patterns) {
+        this.source = List.copyOf(patterns);
+
+        for(String pattern: patterns) {
+            if(pattern.isBlank()) continue;
+
+            Node node = root;
+
+            for(String segment: pattern.split("[/\\\\]")) {
+                if(segment.isEmpty() || segment.equals(".")) continue;
+                node = node.child(segment);
+            }
+
+            node.terminal = true;
+        }
+
+        root.seal();
+        start = root.closure;
+        empty = root.isLeaf();
+    }
+
+    public boolean isCompiledFrom(List<String> patterns) {
+        return source.equals(patterns);
+    }
+
+    public boolean matches(Path path) {
+        //Nothing blacklisted, which is the usual case
+        if(empty) return false;
+
+        List<Node> states = start;
+
+        for(int i = 0; i < path.getNameCount() && !states.isEmpty(); i++) {
+            String segment = path.getName(i).toString();
+            //Only ever a handful of nodes, a list is cheaper than hashing them
+            List<Node> next = new ArrayList<>(4);
+
+            for(Node state: states) state.step(segment, next);
+
+            for(Node state: next) {
+                //Everything under a blacklisted directory is blacklisted as well
+                if(state.terminal) return true;
+            }
+
+            states = next;
+        }
+
+        return false;
+    }
+
+    private static class Node {
+        private final boolean anySegments;
+        private final Map<String, Node> literals = new HashMap<>();
+        private final Map<String, Glob> globs = new HashMap<>();
+        private Node doubleStar = null;
+        //This node together with everything reachable through ** without reading a segment
+        private List<Node> closure;
+        boolean terminal = false;
+
+        Node(boolean anySegments) {
+            this.anySegments = anySegments;
+        }
+
+        Node child(String segment) {
+            if(segment.equals("**")) {
+                if(doubleStar == null) doubleStar = new Node(true);
+                return doubleStar;
+            }
+
+            if(segment.indexOf('*') == -1 && segment.indexOf('?') == -1)
+                return literals.computeIfAbsent(segment, s -> new Node(false));
+
+            return globs.computeIfAbsent(segment, Glob::new).node;
+        }
+
+        boolean isLeaf() {
+            return literals.isEmpty() && globs.isEmpty() && doubleStar == null;
+        }
+
+        //Called once the whole trie has been built
+        void seal() {
+            literals.values().forEach(Node::seal);
+            globs.values().forEach(glob -> glob.node.seal());
+
+            List<Node> nodes = new ArrayList<>();
+            nodes.add(this);
+
+            if(doubleStar != null) {
+                doubleStar.seal();
+                //** can match no segments at all
+                nodes.addAll(doubleStar.closure);
+            }
+
+            closure = List.copyOf(nodes);
+        }
+
+        void step(String segment, List<Node> next) {
+            if(anySegments) addAll(closure, next);
+
+            Node literal = literals.get(segment);
+            if(literal != null) addAll(literal.closure, next);
+
+            for(Glob glob: globs.values()) {
+                if(glob.pattern.matcher(segment).matches()) addAll(glob.node.closure, next);
+            }
+        }
+
+        private static void addAll(List<Node> nodes, List<Node> next) {
+            for(Node node: nodes) {
+                if(!next.contains(node)) next.add(node);
+            }
+        }
+    }
+
+    private static class Glob {
+        final Pattern pattern;
+        final Node node = new Node(false);
+
+        Glob(String glob) {
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+
+            for(char c: glob.toCharArray()) {
+                if(c == '*' || c == '?') {
+                    if(!literal.isEmpty()) regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                    regex.append(c == '*' ? ".*" : ".");
+                } else literal.append(c);
+            }
+
+            if(!literal.isEmpty()) regex.append(Pattern.quote(literal.toString()));
+
+            pattern = Pattern.compile(regex.toString());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.config.ConfigPOJO;
+import net.szum123321.textile_backup.core.digest.BalticHash;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.*;
+
+/**
+ * Content addressed storage used by the CAS format. Files are split into chunks, each of which is stored only once
+ * in the shared objects directory, no matter how many backups reference it. A backup itself is just an index
+ * listing its files and their chunks.
+ * <br><br>
+ * Chunks are identified by their BalticHash and CRC32C, which together give us 96 bits of key.
+ */
+public class ChunkStore {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+
+    public static final String OBJECTS_DIRECTORY = "objects";
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int INDEX_MAGIC = 0x54584243; //TXBC
+    //Version 2 added the hash algorithm to the header
+    private static final int INDEX_VERSION = 2;
+
+    //Garbage collection must never run while a backup is being written, as its chunks aren't referenced by any index yet
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    private final Path objects;
+
+    public ChunkStore(Path backupRoot) {
+        this.objects = backupRoot.resolve(OBJECTS_DIRECTORY);
+    }
+
+    public static void lock() { lock.lock(); }
+
+    public static void unlock() { lock.unlock(); }
+
+    public Key put(byte[] data, int len, int level) throws IOException {
+        Key key = Key.of(data, len);
+        Path file = resolve(key);
+
+        if(Files.exists(file)) return key;
+
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), key.toString(), ".tmp");
+
+        Deflater deflater = new Deflater(level);
+
+        try (OutputStream out = Files.newOutputStream(tmp);
+             DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(out, deflater)) {
+            deflaterOutputStream.write(data, 0, len);
+        } finally {
+            deflater.end();
+        }
+
+        //Someone else might have just stored the very same chunk, which is fine
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return key;
+    }
+
+    public void copyTo(Key key, OutputStream out) throws IOException {
+        Path file = resolve(key);
+
+        if(Files.notExists(file)) throw new FileNotFoundException("Chunk " + key + " is missing from the store!");
+
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(file))) {
+            in.transferTo(out);
+        }
+    }
+
+    /**
+     * Deletes all the chunks which aren't referenced by any of the remaining backups.
+     * Gives up if a backup is being made right now.
+     * @return number of deleted chunks
+     */
+    public int collectGarbage(Path backupRoot) {
+        if(Files.notExists(objects) || !lock.tryLock()) return 0;
+
+        int deleted = 0;
+
+        try {
+            Set<Key> referenced = new HashSet<>();
+
+            for(Path index: RestoreableFile.applyOnFiles(backupRoot, List.<Path>of(),
+                    e -> log.error("An exception occurred while listing backups!", e),
+                    s -> s.filter(f -> f.getArchiveFormat() == ConfigPOJO.ArchiveFormat.CAS).map(RestoreableFile::getFile).toList())) {
+                //If we can't read one of the indexes, we cannot tell which chunks are safe to delete
+                readIndex(index, entry -> referenced.addAll(entry.chunks()));
+            }
+
+            try (Stream<Path> stream = Files.walk(objects)) {
+                for(Path file: stream.filter(Files::isRegularFile).toList()) {
+                    Optional<Key> key = Key.parse(file.getFileName().toString());
+
+                    if(key.isPresent() && referenced.contains(key.get())) continue;
+
+                    Files.delete(file);
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            log.error("An exception occurred while collecting unreferenced chunks!", e);
+        } finally {
+            lock.unlock();
+        }
+
+        return deleted;
+    }
+
+    private Path resolve(Key key) {
+        String name = key.toString();
+        return objects.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    public static void writeIndexHeader(DataOutput out, HashAlgorithm algorithm) throws IOException {
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        out.writeUTF(algorithm.name());
+    }
+
+    /**
+     * @return hash algorithm the tree hash of this backup was made with
+     */
+    public static HashAlgorithm readIndexHashAlgorithm(Path index) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            return readIndexHeader(in, index);
+        }
+    }
+
+    public static void writeIndexEntry(DataOutput out, IndexEntry entry) throws IOException {
+        out.writeBoolean(true);
+        out.writeUTF(entry.name());
+        out.writeLong(entry.size());
+        out.writeInt(entry.chunks().size());
+        for(Key key: entry.chunks()) {
+            out.writeLong(key.hash());
+            out.writeInt(key.crc());
+        }
+    }
+
+    public static void writeIndexEnd(DataOutput out) throws IOException {
+        out.writeBoolean(false);
+    }
+
+    public static void readIndex(Path index, IndexConsumer consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            readIndexHeader(in, index);
+
+            while(in.readBoolean()) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                int n = in.readInt();
+
+                List<Key> chunks = new ArrayList<>(n);
+                for(int i = 0; i < n; i++) chunks.add(new Key(in.readLong(), in.readInt()));
+
+                consumer.accept(new IndexEntry(name, size, chunks));
+            }
+        }
+    }
+
+    private static HashAlgorithm readIndexHeader(DataInputStream in, Path index) throws IOException {
+        if(in.readInt() != INDEX_MAGIC) throw new IOException("Not a CAS index: " + index);
+
+        int version = in.readInt();
+        if(version == 1) return HashAlgorithm.DEFAULT;
+        if(version != INDEX_VERSION) throw new IOException("Unsupported CAS index version: " + version);
+
+        String name = in.readUTF();
+        return HashAlgorithm.byName(name).orElseThrow(() -> new IOException("Unknown hash algorithm: " + name));
+    }
+
+    public record IndexEntry(String name, long size, List<Key> chunks) { }
+
+    public interface IndexConsumer {
+        void accept(IndexEntry entry) throws IOException;
+    }
+
+    public record Key(long hash, int crc) {
+        public static Key of(byte[] data, int len) {
+            BalticHash hash = new BalticHash();
+            hash.update(data, 0, len);
+
+            CRC32C crc = new CRC32C();
+            crc.update(data, 0, len);
+
+            return new Key(hash.getValue(), (int) crc.getValue());
+        }
+
+        public static Optional<Key> parse(String s) {
+            if(s.length() != 24) return Optional.empty();
+
+            try {
+                return Optional.of(new Key(Long.parseUnsignedLong(s.substring(0, 16), 16), Integer.parseUnsignedInt(s.substring(16), 16)));
+            } catch (NumberFormatException e) {
+                return Optional.empty();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%08x", hash, crc);
+        }
+    }
+}
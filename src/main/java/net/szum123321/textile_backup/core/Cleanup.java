@@ -29,7 +29,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.stream.Stream;
 
@@ -57,12 +58,11 @@ public class Cleanup implements Callable<Integer> {
 		if (config.get().maxAge > 0) { // delete files older that configured
 			final long now = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
 
-			deletedFiles += RestoreableFile.applyOnFiles(root, 0L,
-					e -> log.error("An exception occurred while trying to delete old files!", e),
-					stream -> stream.filter(f -> now - f.getCreationTime().toEpochSecond(ZoneOffset.UTC) > config.get().maxAge)
-							.filter(f -> deleteFile(f.getFile(), ctx))
-							.count()
-			);
+			for(var chain: getChains(root)) {
+				//The newest backup of the chain decides
+				if(now - chain.get(chain.size() - 1).getCreationTime().toEpochSecond(ZoneOffset.UTC) > config.get().maxAge)
+					deletedFiles += chain.stream().filter(f -> deleteFile(f.getFile(), ctx)).count();
+			}
 		}
 
 		final int noToKeep = config.get().backupsToKeep > 0 ? config.get().backupsToKeep : Integer.MAX_VALUE;
@@ -71,29 +71,51 @@ public class Cleanup implements Callable<Integer> {
 		long[] counts = count(root);
 		long n = counts[0], size = counts[1];
 
-		var it = RestoreableFile.applyOnFiles(root, null,
-				e -> log.error("An exception occurred while trying to delete old files!", e),
-				s -> s.sorted().toList().iterator());
-
-		if(Objects.isNull(it)) return deletedFiles;
+		var chains = getChains(root);
 
-		while(it.hasNext() && (n > noToKeep || size > maxSize)) {
-			Path f = it.next().getFile();
-			long x;
-			try {
-				x = Files.size(f);
-			} catch (IOException e) { size = 0; continue; }
+		//The newest chain is never removed, otherwise we would be left with no usable backups at all
+		for(int i = 0; i < chains.size() - 1 && (n > noToKeep || size > maxSize); i++) {
+			for(RestoreableFile file: chains.get(i)) {
+				Path f = file.getFile();
+				long x;
+				try {
+					x = Files.size(f);
+				} catch (IOException e) { size = 0; continue; }
 
-			if(!deleteFile(f, ctx)) continue;
+				if(!deleteFile(f, ctx)) continue;
 
-			size -= x;
-			n--;
-			deletedFiles++;
+				size -= x;
+				n--;
+				deletedFiles++;
+			}
 		}
 
+		//Chunks are shared between CAS backups, so they can only go once nothing references them anymore
+		int deletedChunks = new ChunkStore(root).collectGarbage(root);
+		if(deletedChunks > 0) log.info("Deleted {} unreferenced chunks.", deletedChunks);
+
 		return deletedFiles;
 	}
 
+	/**
+	 * Groups backups into chains of a full backup followed by the incremental ones made on top of it.
+	 * As incremental backups are useless without their base, a chain is always removed as a whole.
+	 */
+	private List<List<RestoreableFile>> getChains(Path root) {
+		List<RestoreableFile> files = RestoreableFile.applyOnFiles(root, List.of(),
+				e -> log.error("An exception occurred while trying to delete old files!", e),
+				s -> s.sorted().toList());
+
+		List<List<RestoreableFile>> chains = new ArrayList<>();
+
+		for(RestoreableFile f: files) {
+			if(!f.isIncremental() || chains.isEmpty()) chains.add(new ArrayList<>());
+			chains.get(chains.size() - 1).add(f);
+		}
+
+		return chains;
+	}
+
 	private long[] count(Path root) {
 		long n = 0, size = 0;
 
@@ -126,6 +148,7 @@ public class Cleanup implements Callable<Integer> {
 		if(Globals.INSTANCE.getLockedFile().filter(p -> p == f).isPresent()) return false;
 		try {
 			Files.delete(f);
+			ArchiveIndex.delete(f);
 			log.sendInfoAL(ctx, "Deleted: {}", f);
 		} catch (IOException e) {
 			if(Utilities.wasSentByPlayer(ctx)) log.sendError(ctx, "Something went wrong while deleting: {}.", f);
@@ -18,6 +18,7 @@
 
 package net.szum123321.textile_backup.core;
 
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
 import net.szum123321.textile_backup.core.restore.RestoreContext;
 
 import java.io.*;
@@ -25,10 +26,18 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-public record CompressionStatus(long treeHash, Map<String, Exception> brokenFiles, LocalDateTime date, long startTimestamp, long finishTimestamp, String version) implements Serializable {
+/**
+ * baseBackup, deletedFiles and regionDeltas are only set for incremental backups. baseBackup is the file name of the backup this one
+ * was made on top of, and deletedFiles lists the files which were present in it, but have since been removed.
+ * regionDeltas lists the region files which were stored as a delta against their previous version.
+ * hashAlgorithm is the hash the treeHash was built with, null for backups made before it was selectable.
+ */
+public record CompressionStatus(long treeHash, Map<String, Exception> brokenFiles, LocalDateTime date, long startTimestamp, long finishTimestamp, String version,
+                                String baseBackup, List<String> deletedFiles, List<String> regionDeltas, HashAlgorithm hashAlgorithm) implements Serializable {
     public static final String DATA_FILENAME = "textile_status.data";
 
     public Optional<String> validate(long hash, RestoreContext ctx) throws RuntimeException {
@@ -47,15 +56,28 @@ public record CompressionStatus(long treeHash, Map<String, Exception> brokenFile
         return Optional.empty();
     }
 
+    public boolean isIncremental() { return baseBackup != null; }
+
+    //Status files written by older versions won't have this field set
+    public List<String> getDeletedFiles() { return deletedFiles != null ? deletedFiles : List.of(); }
+
+    public List<String> getRegionDeltas() { return regionDeltas != null ? regionDeltas : List.of(); }
+
+    public HashAlgorithm getHashAlgorithm() { return hashAlgorithm != null ? hashAlgorithm : HashAlgorithm.DEFAULT; }
+
     public static Path resolveStatusFilename(Path directory) { return directory.resolve(DATA_FILENAME); }
 
     public static CompressionStatus readFromFile(Path directory) throws IOException, ClassNotFoundException {
-        try(InputStream i = Files.newInputStream(directory.resolve(DATA_FILENAME));
-            ObjectInputStream obj = new ObjectInputStream(i)) {
-            return (CompressionStatus) obj.readObject();
+        try(InputStream i = Files.newInputStream(directory.resolve(DATA_FILENAME))) {
+            return read(i);
         }
     }
 
+    public static CompressionStatus read(InputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream obj = new ObjectInputStream(in);
+        return (CompressionStatus) obj.readObject();
+    }
+
     public byte[] serialize() throws IOException {
         try (ByteArrayOutputStream bo = new ByteArrayOutputStream();
              ObjectOutputStream o = new ObjectOutputStream(bo)) {
@@ -74,7 +96,13 @@ public record CompressionStatus(long treeHash, Map<String, Exception> brokenFile
                 .append(date.format(DateTimeFormatter.ISO_DATE_TIME))
                 .append(", Start timestamp: ").append(startTimestamp)
                 .append(", Finish timestamp: ").append(finishTimestamp)
-                .append(", Mod Version: ").append(version);
+                .append(", Mod Version: ").append(version)
+                .append(", Hash algorithm: ").append(getHashAlgorithm());
+
+        if(isIncremental())
+            builder.append(", Base backup: ").append(baseBackup)
+                    .append(", Deleted files: ").append(getDeletedFiles().size())
+                    .append(", Region deltas: ").append(getRegionDeltas().size());
 
         builder.append(", Broken files: ");
         if(brokenFiles.isEmpty()) builder.append("[]");
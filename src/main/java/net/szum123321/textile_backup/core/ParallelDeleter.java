@@ -0,0 +1,119 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Deletes a directory tree with every subdirectory being a task of its own on a fork/join pool.
+ * Files are deleted in batches, also as separate tasks, as most of them sit in just a few directories.
+ * Deleting is mostly waiting on the disk, so with a lot of small files (regions, entities, poi) having a few
+ * deletes in flight at once goes a long way, especially on network storage.
+ * <br><br>
+ * Same as {@link Utilities#deleteDirectory(Path)}, symbolic links are deleted, not followed.
+ */
+public class ParallelDeleter {
+    private final static int BATCH_SIZE = 64;
+
+    public static void delete(Path directory, int threads) throws IOException {
+        if(threads <= 1) {
+            Utilities.deleteDirectory(directory);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            pool.invoke(new DeleteTask(directory));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class DeleteTask extends RecursiveAction {
+        private final Path directory;
+
+        DeleteTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>(BATCH_SIZE);
+
+            try {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                    for(Path path: stream) {
+                        if(Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                            subtasks.add(new DeleteTask(path));
+                            subtasks.get(subtasks.size() - 1).fork();
+                        } else {
+                            batch.add(path);
+
+                            if(batch.size() == BATCH_SIZE) {
+                                subtasks.add(new BatchTask(batch));
+                                subtasks.get(subtasks.size() - 1).fork();
+                                batch = new ArrayList<>(BATCH_SIZE);
+                            }
+                        }
+                    }
+                }
+
+                //Whatever is left over is done right here
+                new BatchTask(batch).compute();
+
+                //Rethrows the first failure of the subtasks
+                for(RecursiveAction task: subtasks) task.join();
+
+                Files.delete(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static class BatchTask extends RecursiveAction {
+        private final List<Path> files;
+
+        BatchTask(List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                for(Path file: files) Files.delete(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
\ No newline at end of file
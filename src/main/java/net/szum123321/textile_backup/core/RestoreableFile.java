@@ -43,16 +43,21 @@ import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
  * This class parses backup files, extracting its creation time, format and possibly comment
  */
 public class RestoreableFile implements Comparable<RestoreableFile> {
+    //Put right before the extension of incremental backups, e.g. 2023.01.01_12-00-00#comment.inc.zip
+    public static final String INCREMENTAL_MARKER = ".inc";
+
     private final Path file;
     private final ConfigPOJO.ArchiveFormat archiveFormat;
     private final LocalDateTime creationTime;
     private final String comment;
+    private final boolean incremental;
 
-    private RestoreableFile(Path file, ConfigPOJO.ArchiveFormat archiveFormat, LocalDateTime creationTime, String comment) {
+    private RestoreableFile(Path file, ConfigPOJO.ArchiveFormat archiveFormat, LocalDateTime creationTime, String comment, boolean incremental) {
         this.file = file;
         this.archiveFormat = archiveFormat;
         this.creationTime = creationTime;
         this.comment = comment;
+        this.incremental = incremental;
     }
 
     //removes repetition of the files stream thingy with awfully large lambdas
@@ -79,6 +84,9 @@ public class RestoreableFile implements Comparable<RestoreableFile> {
 
         int parsed_pos = filename.length() - format.getCompleteString().length();
 
+        boolean incremental = filename.substring(0, parsed_pos).endsWith(INCREMENTAL_MARKER);
+        if(incremental) parsed_pos -= INCREMENTAL_MARKER.length();
+
         String comment = null;
 
         if(filename.contains("#")) {
@@ -89,16 +97,16 @@ public class RestoreableFile implements Comparable<RestoreableFile> {
         var time_string = filename.substring(0, parsed_pos);
 
         try {
-            return Optional.of(new RestoreableFile(file, format, LocalDateTime.from(Utilities.getDateTimeFormatter().parse(time_string)), comment));
+            return Optional.of(new RestoreableFile(file, format, LocalDateTime.from(Utilities.getDateTimeFormatter().parse(time_string)), comment, incremental));
         } catch (Exception ignored) {}
 
         try {
-            return Optional.of(new RestoreableFile(file, format, LocalDateTime.from(Globals.defaultDateTimeFormatter.parse(time_string)), comment));
+            return Optional.of(new RestoreableFile(file, format, LocalDateTime.from(Globals.defaultDateTimeFormatter.parse(time_string)), comment, incremental));
         } catch (Exception ignored) {}
 
         try {
             FileTime fileTime = Files.readAttributes(file, BasicFileAttributes.class, NOFOLLOW_LINKS).creationTime();
-            return Optional.of(new RestoreableFile(file, format, LocalDateTime.ofInstant(fileTime.toInstant(), ZoneOffset.systemDefault()), comment));
+            return Optional.of(new RestoreableFile(file, format, LocalDateTime.ofInstant(fileTime.toInstant(), ZoneOffset.systemDefault()), comment, incremental));
         } catch (IOException ignored) {}
 
         return Optional.empty();
@@ -112,9 +120,17 @@ public class RestoreableFile implements Comparable<RestoreableFile> {
 
     public Optional<String> getComment() { return Optional.ofNullable(comment); }
 
+    public boolean isIncremental() { return incremental; }
+
     @Override
     public int compareTo(@NotNull RestoreableFile o) { return creationTime.compareTo(o.creationTime); }
 
+    @Override
+    public boolean equals(Object o) { return o instanceof RestoreableFile r && file.equals(r.file); }
+
+    @Override
+    public int hashCode() { return file.hashCode(); }
+
     public String toString() {
         return this.getCreationTime().format(Globals.defaultDateTimeFormatter) + (comment != null ? "#" + comment : "");
     }
@@ -39,10 +39,12 @@ import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 
 public class Utilities {
 	private final static ConfigHelper config = ConfigHelper.INSTANCE;
 	private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+	private static volatile BlacklistMatcher blacklistMatcher = new BlacklistMatcher(List.of());
 
 	//I'm keeping this wrapper function for easier backporting
 	public static boolean wasSentByPlayer(ServerCommandSource source) { return source.isExecutedByPlayer(); }
@@ -80,6 +82,18 @@ public class Utilities {
 		});
 	}
 
+	/**
+	 * Resolves a path read from a backup. Names like ../../x or absolute paths would end up outside the target directory
+	 */
+	public static Path resolveEntry(Path target, String name) throws IOException {
+		Path root = target.toAbsolutePath().normalize();
+		Path file = root.resolve(name).normalize();
+
+		if(!file.startsWith(root)) throw new IOException("Entry points outside of the target directory: " + name);
+
+		return file;
+	}
+
 	public static void disableWorldSaving(MinecraftServer server) {
 		for (ServerWorld serverWorld : server.getWorlds()) {
 			if (serverWorld != null && !serverWorld.savingDisabled)
@@ -98,6 +112,16 @@ public class Utilities {
 		return System.getProperty("os.name").toLowerCase().contains("win");
 	}
 
+	/**
+	 * @return number of threads backup creation and restoration may use, as limited by compressionCoreCountLimit
+	 */
+	public static int getCoreCount() {
+		int available = Runtime.getRuntime().availableProcessors();
+
+		if (config.get().compressionCoreCountLimit <= 0) return available;
+		return Math.min(config.get().compressionCoreCountLimit, available);
+	}
+
 	public static Path getBackupRootPath(String worldName) {
 		Path path = Path.of(config.get().backupDirectoryPath).toAbsolutePath();
 
@@ -115,11 +139,22 @@ public class Utilities {
 	}
 
 	public static boolean isBlacklisted(Path path) {
-		if (path.getFileName().equals(Path.of("session.lock"))) return true;
+		if (path.getNameCount() == 0) return false;
+
+		String name = path.getFileName().toString();
+
+		if (name.equals("session.lock")) return true;
 
-		if(path.getFileName().equals(Path.of(CompressionStatus.DATA_FILENAME))) return true;
+		if (name.equals(CompressionStatus.DATA_FILENAME)) return true;
+
+		//Only rebuilt when the config changes
+		BlacklistMatcher matcher = blacklistMatcher;
+		if (!matcher.isCompiledFrom(config.get().fileBlacklist)) {
+			matcher = new BlacklistMatcher(config.get().fileBlacklist);
+			blacklistMatcher = matcher;
+		}
 
-		return config.get().fileBlacklist.stream().anyMatch(path::startsWith);
+		return matcher.matches(path);
 	}
 
 	public static DateTimeFormatter getDateTimeFormatter() {
@@ -7,14 +7,21 @@ import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.config.ConfigHelper;
 import net.szum123321.textile_backup.core.ActionInitiator;
+import net.szum123321.textile_backup.core.ArchiveIndex;
+import net.szum123321.textile_backup.core.BackupManifest;
 import net.szum123321.textile_backup.core.Cleanup;
+import net.szum123321.textile_backup.core.RestoreableFile;
 import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.WorldSavingState;
+import net.szum123321.textile_backup.core.create.compressors.CASCompressor;
 import net.szum123321.textile_backup.core.create.compressors.ParallelZipCompressor;
 import net.szum123321.textile_backup.core.create.compressors.ZipCompressor;
 import net.szum123321.textile_backup.core.create.compressors.tar.AbstractTarArchiver;
 import net.szum123321.textile_backup.core.create.compressors.tar.ParallelBZip2Compressor;
 import net.szum123321.textile_backup.core.create.compressors.tar.ParallelGzipCompressor;
+import net.szum123321.textile_backup.core.create.compressors.tar.ParallelLZ4Compressor;
+import net.szum123321.textile_backup.core.create.compressors.tar.ParallelXZCompressor;
+import net.szum123321.textile_backup.core.create.compressors.tar.ParallelZstdCompressor;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
@@ -68,11 +75,14 @@ public record ExecutableBackup(@NotNull MinecraftServer server,
     }
     @Override
     public Void call() throws Exception {
-        Path outFile = Utilities.getBackupRootPath(Utilities.getLevelName(server)).resolve(getFileName());
+        Path backupRoot = Utilities.getBackupRootPath(Utilities.getLevelName(server));
+        Optional<BackupManifest> base = getIncrementalBase(backupRoot);
+        Path outFile = backupRoot.resolve(getFileName(base.isPresent()));
 
         log.trace("Outfile is: {}", outFile);
 
         AtomicReference<Optional<WorldSavingState>> state = new AtomicReference<>(Optional.empty());
+        Optional<Path> snapshot = Optional.empty();
 
         try {
             Globals.INSTANCE.disableWatchdog = true;
@@ -90,8 +100,6 @@ public record ExecutableBackup(@NotNull MinecraftServer server,
                 state.set(Optional.of(WorldSavingState.disable(server)));
             });
 
-            Globals.INSTANCE.updateTMPFSFlag(server);
-
             log.sendInfoAL(this, "Starting backup");
 
             Path world = Utilities.getWorldFolder(server);
@@ -101,29 +109,46 @@ public record ExecutableBackup(@NotNull MinecraftServer server,
             Files.createDirectories(outFile.getParent());
             Files.createFile(outFile);
 
-            int coreCount;
+            int coreCount = Utilities.getCoreCount();
+
+            if (config.get().snapshotBeforeCompression) {
+                snapshot = WorldSnapshot.take(world, backupRoot, coreCount);
+
+                if (snapshot.isPresent()) {
+                    //From now on we're working on a copy, so there's no reason to keep the world from saving
+                    state.getAndSet(Optional.empty()).ifPresent(s -> s.enable(server));
+                    Globals.INSTANCE.disableWatchdog = false;
 
-            if (config.get().compressionCoreCountLimit <= 0) coreCount = Runtime.getRuntime().availableProcessors();
-            else
-                coreCount = Math.min(config.get().compressionCoreCountLimit, Runtime.getRuntime().availableProcessors());
+                    world = snapshot.get();
+                }
+            }
 
             log.trace("Running compression on {} threads. Available cores: {}", coreCount, Runtime.getRuntime().availableProcessors());
 
+            BackupManifest manifest = null;
+
             switch (config.get().format) {
                 case ZIP -> {
-                    if (coreCount > 1 && !Globals.INSTANCE.disableTMPFS()) {
+                    if (coreCount > 1) {
                         log.trace("Using PARALLEL Zip Compressor. Threads: {}", coreCount);
-                        ParallelZipCompressor.getInstance().createArchive(world, outFile, this, coreCount);
+                        manifest = ParallelZipCompressor.getInstance().createArchive(world, outFile, this, coreCount, base.orElse(null));
                     } else {
                         log.trace("Using REGULAR Zip Compressor.");
-                        ZipCompressor.getInstance().createArchive(world, outFile, this, coreCount);
+                        manifest = ZipCompressor.getInstance().createArchive(world, outFile, this, coreCount, base.orElse(null));
                     }
                 }
-                case BZIP2 -> ParallelBZip2Compressor.getInstance().createArchive(world, outFile, this, coreCount);
-                case GZIP -> ParallelGzipCompressor.getInstance().createArchive(world, outFile, this, coreCount);
-                case TAR -> new AbstractTarArchiver().createArchive(world, outFile, this, coreCount);
+                case BZIP2 -> manifest = ParallelBZip2Compressor.getInstance().createArchive(world, outFile, this, coreCount, base.orElse(null));
+                case GZIP -> manifest = ParallelGzipCompressor.getInstance().createArchive(world, outFile, this, coreCount, base.orElse(null));
+                case LZMA -> manifest = ParallelXZCompressor.getInstance().createArchive(world, outFile, this, coreCount, base.orElse(null));
+                case ZSTD -> manifest = ParallelZstdCompressor.getInstance().createArchive(world, outFile, this, coreCount, base.orElse(null));
+                case LZ4 -> manifest = ParallelLZ4Compressor.getInstance().createArchive(world, outFile, this, coreCount, base.orElse(null));
+                case TAR -> manifest = new AbstractTarArchiver().createArchive(world, outFile, this, coreCount, base.orElse(null));
+                case CAS -> manifest = CASCompressor.getInstance().createArchive(world, outFile, this, coreCount, base.orElse(null));
             }
 
+            //The manifest is only updated once the backup has been successfully created
+            if (config.get().incrementalBackupChainLength > 0 && manifest != null) manifest.writeToDirectory(backupRoot);
+
             if(cleanup) new Cleanup(commandSource, Utilities.getLevelName(server)).call();
 
             if (config.get().broadcastBackupDone) Utilities.notifyPlayers(server, "Done!");
@@ -136,6 +161,7 @@ public record ExecutableBackup(@NotNull MinecraftServer server,
             if (ConfigHelper.INSTANCE.get().integrityVerificationMode.isStrict()) {
                 try {
                     Files.delete(outFile);
+                    ArchiveIndex.delete(outFile);
                 } catch (IOException ex) {
                     log.error("An exception occurred while trying go delete: {}", outFile, ex);
                 }
@@ -150,14 +176,33 @@ public record ExecutableBackup(@NotNull MinecraftServer server,
                 state.get().get().enable(server);
             }
             Globals.INSTANCE.disableWatchdog = false;
+
+            snapshot.ifPresent(WorldSnapshot::delete);
         }
 
         return null;
     }
 
-    private String getFileName() {
+    /**
+     * An incremental backup can only be made on top of the newest backup, and only if that's the one described by the manifest.
+     * Otherwise, (or when the chain has gotten too long) we start over with a full one.
+     */
+    private Optional<BackupManifest> getIncrementalBase(Path backupRoot) {
+        if (config.get().incrementalBackupChainLength <= 0) return Optional.empty();
+
+        Optional<String> latest = RestoreableFile.applyOnFiles(backupRoot, Optional.empty(),
+                e -> log.error("An exception occurred while looking for the latest backup!", e),
+                s -> s.max(RestoreableFile::compareTo).map(f -> f.getFile().getFileName().toString()));
+
+        return BackupManifest.readFromDirectory(backupRoot)
+                .filter(m -> m.chainLength() < config.get().incrementalBackupChainLength)
+                .filter(m -> latest.filter(m.lastBackup()::equals).isPresent());
+    }
+
+    private String getFileName(boolean incremental) {
         return Utilities.getDateTimeFormatter().format(startDate) +
                 (comment != null ? "#" + comment.replaceAll("[\\\\/:*?\"<>|#]", "") : "") +
+                (incremental ? RestoreableFile.INCREMENTAL_MARKER : "") +
                 config.get().format.getCompleteString();
     }
     public static class Builder {
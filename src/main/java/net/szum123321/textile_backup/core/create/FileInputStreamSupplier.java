@@ -28,9 +28,10 @@ import java.io.InputStream;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Optional;
 
-public record FileInputStreamSupplier(Path path, String name, FileTreeHashBuilder hashTreeBuilder, BrokenFileHandler brokenFileHandler) implements InputSupplier {
+public record FileInputStreamSupplier(Path path, String name, BasicFileAttributes attributes, FileTreeHashBuilder hashTreeBuilder, BrokenFileHandler brokenFileHandler) implements InputSupplier {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
 
     @Override
@@ -50,7 +51,10 @@ public record FileInputStreamSupplier(Path path, String name, FileTreeHashBuilde
     public Optional<Path> getPath() { return Optional.of(path); }
 
     @Override
-    public long size() throws IOException { return Files.size(path); }
+    public Optional<BasicFileAttributes> getAttributes() { return Optional.of(attributes); }
+
+    @Override
+    public long size() { return attributes.size(); }
 
     @Override
     public String getName() {
@@ -0,0 +1,101 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create;
+
+import net.szum123321.textile_backup.core.Utilities;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Lists all the regular files in the world which aren't blacklisted, together with their attributes.
+ * Each directory is listed as a separate fork/join task, and blacklisted directories aren't entered at all.
+ * The tasks run on a pool of their own, sized like the rest of the backup, rather than on the common pool.
+ * <br><br>
+ * Same as Files.walk, symbolic links to files are followed, but links to directories aren't.
+ */
+public class FileTreeWalker {
+    public record Entry(Path path, BasicFileAttributes attributes) { }
+
+    public static List<Entry> walk(Path root, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+        try {
+            List<Entry> entries = pool.invoke(new DirectoryTask(root, root));
+            //Keeps the archives reproducible
+            entries.sort(Comparator.comparing(Entry::path));
+            return entries;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class DirectoryTask extends RecursiveTask<List<Entry>> {
+        private final Path root, directory;
+
+        DirectoryTask(Path root, Path directory) {
+            this.root = root;
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<Entry> compute() {
+            List<Entry> entries = new ArrayList<>();
+            List<DirectoryTask> subtasks = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for(Path path: stream) {
+                    if(Utilities.isBlacklisted(root.relativize(path))) continue;
+
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+                    if(attrs.isSymbolicLink()) {
+                        try {
+                            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                        } catch (NoSuchFileException e) {
+                            continue; //Dangling link
+                        }
+                        if(attrs.isRegularFile()) entries.add(new Entry(path, attrs));
+                    } else if(attrs.isDirectory()) {
+                        DirectoryTask task = new DirectoryTask(root, path);
+                        task.fork();
+                        subtasks.add(task);
+                    } else if(attrs.isRegularFile()) {
+                        entries.add(new Entry(path, attrs));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            for(DirectoryTask task: subtasks) entries.addAll(task.join());
+
+            return entries;
+        }
+    }
+}
@@ -23,12 +23,15 @@ import org.apache.commons.compress.parallel.InputStreamSupplier;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Optional;
 
 public interface InputSupplier extends InputStreamSupplier {
     InputStream getInputStream() throws IOException;
     //If an entry is virtual (a.k.a. there is no actual file to open, only input stream)
     Optional<Path> getPath();
+    //Attributes read while listing the files, so that we don't have to query the filesystem again. Empty for virtual entries
+    Optional<BasicFileAttributes> getAttributes();
     String getName();
 
     long size() throws IOException;
@@ -0,0 +1,121 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.Utilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+/**
+ * Copies the world into a staging directory, so that the world saving can be turned back on while the copy is being compressed.
+ * <br><br>
+ * Files.copy is used, as on some systems the JDK can hand it off to the kernel (copy_file_range), which in turn may share
+ * the blocks on copy-on-write filesystems. Proper reflinks aren't reachable from Java. Hard links can't be used,
+ * as Minecraft overwrites region files in place.
+ */
+public class WorldSnapshot {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    public static final String SNAPSHOT_DIRECTORY = ".textile_snapshot";
+
+    /**
+     * @return the snapshot, or empty if it couldn't be made. In such case the backup should be made from the world itself
+     */
+    public static Optional<Path> take(Path world, Path backupRoot, int threads) {
+        Instant start = Instant.now();
+        Path snapshot = backupRoot.resolve(SNAPSHOT_DIRECTORY);
+
+        try {
+            //Leftover from a crash
+            if(Files.exists(snapshot)) Utilities.deleteDirectory(snapshot);
+
+            List<FileTreeWalker.Entry> files = FileTreeWalker.walk(world, threads);
+            long totalSize = files.stream().mapToLong(e -> e.attributes().size()).sum();
+
+            Files.createDirectories(snapshot);
+
+            long usable = Files.getFileStore(snapshot).getUsableSpace();
+            if(usable < totalSize) {
+                log.warn("Not enough space for a snapshot! Needed: {} bytes, available: {} bytes. Compressing the world directly.", totalSize, usable);
+                Files.delete(snapshot);
+                return Optional.empty();
+            }
+
+            copy(world, snapshot, files, threads);
+
+            log.info("Snapshot of {} files ({} bytes) took: {} seconds.", files.size(), totalSize,
+                    Utilities.formatDuration(Duration.between(start, Instant.now())));
+
+            return Optional.of(snapshot);
+        } catch (IOException | InterruptedException e) {
+            log.error("An exception occurred while taking a snapshot of the world! Compressing the world directly.", e);
+            delete(snapshot);
+        }
+
+        return Optional.empty();
+    }
+
+    public static void delete(Path snapshot) {
+        if(Files.notExists(snapshot)) return;
+
+        try {
+            Utilities.deleteDirectory(snapshot);
+        } catch (IOException e) {
+            log.error("An exception occurred while deleting the snapshot: {}", snapshot, e);
+        }
+    }
+
+    private static void copy(Path world, Path snapshot, List<FileTreeWalker.Entry> files, int threads) throws IOException, InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<Void>> tasks = new ArrayList<>(files.size());
+
+            for(FileTreeWalker.Entry file: files) {
+                tasks.add(executorService.submit(() -> {
+                    Path target = snapshot.resolve(world.relativize(file.path()).toString());
+                    Files.createDirectories(target.getParent());
+                    //Attributes have to be kept, incremental backups look at the modification time
+                    Files.copy(file.path(), target, StandardCopyOption.COPY_ATTRIBUTES);
+                    return null;
+                }));
+            }
+
+            for(Future<Void> task: tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("An exception occurred while copying the world!", e.getCause());
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -26,17 +26,23 @@ import net.szum123321.textile_backup.core.*;
 import net.szum123321.textile_backup.core.create.BrokenFileHandler;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
 import net.szum123321.textile_backup.core.create.FileInputStreamSupplier;
+import net.szum123321.textile_backup.core.create.FileTreeWalker;
 import net.szum123321.textile_backup.core.create.InputSupplier;
 import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import net.szum123321.textile_backup.core.digest.HashingInputStream;
+import net.szum123321.textile_backup.core.region.RegionDelta;
+import net.szum123321.textile_backup.core.region.RegionFile;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.ExecutionException;
-import java.util.stream.Stream;
 
 /**
  * Basic abstract class representing directory compressor with all the bells and whistles
@@ -44,33 +50,111 @@ import java.util.stream.Stream;
 public abstract class AbstractCompressor {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
 
-    public void createArchive(Path inputFile, Path outputFile, ExecutableBackup ctx, int coreLimit) throws IOException, ExecutionException, InterruptedException {
+    //Picked once per backup, the archive has to record the same one the tree hash is built with
+    protected HashAlgorithm hashAlgorithm = HashAlgorithm.DEFAULT;
+    protected WorkerUtilization utilization = new WorkerUtilization();
+
+    /**
+     * @param base manifest of the previous backup. If present, only the files which have changed since will be put into the archive
+     * @return manifest describing the state of the world at the time of this backup
+     */
+    public BackupManifest createArchive(Path inputFile, Path outputFile, ExecutableBackup ctx, int coreLimit, @Nullable BackupManifest base) throws IOException, ExecutionException, InterruptedException {
         Instant start = Instant.now();
+        hashAlgorithm = ConfigHelper.INSTANCE.get().hashAlgorithm;
+        utilization = new WorkerUtilization();
 
         BrokenFileHandler brokenFileHandler = new BrokenFileHandler(); //Basically a hashmap storing files and their respective exceptions
+        Map<String, BackupManifest.FileState> manifestFiles = new HashMap<>();
+        Map<String, ArchiveIndex.Entry> indexEntries = new HashMap<>();
 
         try (OutputStream outStream = Files.newOutputStream(outputFile);
              BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outStream);
-             OutputStream arc = createArchiveOutputStream(bufferedOutputStream, ctx, coreLimit);
-             Stream<Path> fileStream = Files.walk(inputFile)) {
+             OutputStream arc = createArchiveOutputStream(bufferedOutputStream, ctx, coreLimit)) {
+
+            var fileList = FileTreeWalker.walk(inputFile, coreLimit);
+
+            //In case of an incremental backup, unchanged files are simply carried over from the previous manifest
+            List<FileTreeWalker.Entry> changedFiles = new ArrayList<>(fileList.size());
+            Set<String> presentFiles = new HashSet<>(fileList.size());
+
+            //Region files are tracked chunk by chunk, so that the next incremental backup only has to store the chunks which have changed
+            boolean trackRegions = ConfigHelper.INSTANCE.get().incrementalBackupChainLength > 0;
+            Map<Path, byte[]> regionDeltas = new HashMap<>();
+
+            for (var entry : fileList) {
+                Path file = entry.path();
+                String name = inputFile.relativize(file).toString();
+                presentFiles.add(name);
+
+                long lastModified = entry.attributes().lastModifiedTime().toMillis();
 
-            var fileList = fileStream
-                    .filter(path -> !Utilities.isBlacklisted(inputFile.relativize(path)))
-                    .filter(Files::isRegularFile)
-                    .toList();
+                if (base != null && base.isUnchanged(name, entry.attributes().size(), lastModified)) {
+                    manifestFiles.put(name, base.files().get(name));
+                    continue;
+                }
+
+                long[] chunkHashes = null;
+
+                if (trackRegions && RegionFile.isRegionFile(name)) {
+                    try {
+                        chunkHashes = RegionFile.hashSlots(file);
 
-            FileTreeHashBuilder fileHashBuilder = new FileTreeHashBuilder(fileList.size());
+                        var baseState = base != null ? base.files().get(name) : null;
+                        if (baseState != null && baseState.chunkHashes() != null)
+                            RegionDelta.create(file, baseState.chunkHashes(), chunkHashes).ifPresent(d -> regionDeltas.put(file, d));
+                    } catch (IOException e) {
+                        //Not a valid region file. It will simply be stored whole
+                        log.debug("Couldn't read the region file: {}", name, e);
+                        chunkHashes = null;
+                    }
+                }
+
+                manifestFiles.put(name, new BackupManifest.FileState(entry.attributes().size(), lastModified, 0, chunkHashes));
+
+                changedFiles.add(entry);
+            }
+
+            List<String> deletedFiles = base == null ? List.of() :
+                    base.files().keySet().stream().filter(name -> !presentFiles.contains(name)).sorted().toList();
+
+            if (base != null)
+                log.sendInfoAL(ctx, "Incremental backup: {} of {} files changed ({} region files as deltas), {} deleted since {}.",
+                        changedFiles.size(), fileList.size(), regionDeltas.size(), deletedFiles.size(), base.lastBackup());
+
+            /*
+                Largest first, so that the big region files don't end up being the last ones compressed while the other workers idle.
+                The sort is stable and the list comes sorted by path, so the archive layout is still the same for the same files
+            */
+            if (compressesEntriesInParallel())
+                changedFiles.sort(Comparator.comparingLong((FileTreeWalker.Entry e) ->
+                        regionDeltas.containsKey(e.path()) ? regionDeltas.get(e.path()).length : e.attributes().size()).reversed());
+
+            FileTreeHashBuilder fileHashBuilder = new FileTreeHashBuilder(changedFiles.size(), hashAlgorithm, true);
+
+            for (var entry : changedFiles) {
+                Path file = entry.path();
 
-            for (Path file : fileList) {
                 try {
-                    addEntry(
-                            new FileInputStreamSupplier(
-                                    file,
-                                    inputFile.relativize(file).toString(),
-                                    fileHashBuilder,
-                                    brokenFileHandler),
-                            arc
-                    );
+                    if (regionDeltas.containsKey(file))
+                        addEntry(
+                                new RegionDeltaInputSupplier(
+                                        deltaPath(file),
+                                        inputFile.relativize(file) + RegionDelta.SUFFIX,
+                                        regionDeltas.get(file),
+                                        fileHashBuilder,
+                                        brokenFileHandler),
+                                arc
+                        );
+                    else
+                        addEntry(
+                                new FileInputStreamSupplier(
+                                        file,
+                                        inputFile.relativize(file).toString(),
+                                        entry.attributes(),
+                                        fileHashBuilder,
+                                        brokenFileHandler),
+                                arc
+                        );
                 } catch (IOException e) {
                     brokenFileHandler.handle(file, e);
                     fileHashBuilder.update(file, 0, 0);
@@ -93,35 +177,117 @@ public abstract class AbstractCompressor {
                     treeHash,
                     brokenFileHandler.get(),
                     ctx.startDate(), start.toEpochMilli(), now.toEpochMilli(),
-                    Globals.INSTANCE.getCombinedVersionString()
+                    Globals.INSTANCE.getCombinedVersionString(),
+                    base != null ? base.lastBackup() : null,
+                    deletedFiles,
+                    regionDeltas.keySet().stream()
+                            .filter(file -> !brokenFileHandler.get().containsKey(deltaPath(file).toString()))
+                            .map(file -> inputFile.relativize(file).toString())
+                            .sorted()
+                            .toList(),
+                    hashAlgorithm
             );
 
-            addEntry(new StatusFileInputSupplier(status.serialize()), arc);
+            byte[] statusData = status.serialize();
+            addEntry(new StatusFileInputSupplier(statusData), arc);
+            indexEntries.put(CompressionStatus.DATA_FILENAME, new ArchiveIndex.Entry(-1, statusData.length, 0));
 
             finish(arc);
+            utilization.stop();
+
+            for (var entry : changedFiles) {
+                Path file = entry.path();
+                String name = inputFile.relativize(file).toString();
+                Path stored = regionDeltas.containsKey(file) ? deltaPath(file) : file;
+                var state = manifestFiles.get(name);
+                var hash = fileHashBuilder.getFileHash(stored);
+
+                //Broken files are left out, so that the next incremental backup will try to pick them up again
+                if (state == null || hash.isEmpty() || brokenFileHandler.get().containsKey(stored.toString())) {
+                    manifestFiles.remove(name);
+                    continue;
+                }
+
+                manifestFiles.put(name, new BackupManifest.FileState(state.size(), state.lastModified(), hash.get(), state.chunkHashes()));
+
+                if (regionDeltas.containsKey(file))
+                    indexEntries.put(name + RegionDelta.SUFFIX, new ArchiveIndex.Entry(-1, regionDeltas.get(file).length, hash.get()));
+                else
+                    indexEntries.put(name, new ArchiveIndex.Entry(-1, entry.attributes().size(), hash.get()));
+            }
         } finally {
             close();
         }
 
-        log.sendInfoAL(ctx, "Compression took: {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
+        //Only needed to restore a part of the backup, not worth failing the whole backup over
+        try {
+            createIndex(indexEntries).write(outputFile);
+        } catch (IOException e) {
+            log.error("An exception occurred while writing the archive index!", e);
+        }
+
+        if (utilization.isEmpty())
+            log.sendInfoAL(ctx, "Compression took: {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
+        else
+            log.sendInfoAL(ctx, "Compression took: {} seconds. Worker utilization: {}", Utilities.formatDuration(Duration.between(start, Instant.now())), utilization);
+
+        return new BackupManifest(
+                outputFile.getFileName().toString(),
+                base != null ? base.chainLength() + 1 : 0,
+                manifestFiles
+        );
     }
 
     protected abstract OutputStream createArchiveOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException;
     protected abstract void addEntry(InputSupplier inputSupplier, OutputStream arc) throws IOException;
 
+    /**
+     * Compressors which work on many entries at once get them largest first
+     */
+    protected boolean compressesEntriesInParallel() {
+        return false;
+    }
+
     protected void finish(OutputStream arc) throws InterruptedException, ExecutionException, IOException {
-        //This function is only needed for the ParallelZipCompressor to write out ParallelScatterZipCreator
+        //Called after the status file has been added, for the compressors which write their archive out only at the end
     }
 
     protected void close() {
         //Same as above, just for ParallelGzipCompressor to shut down ExecutorService
     }
 
+    /**
+     * Called once the archive has been closed. Formats which can find their entries on their own don't need the offsets
+     */
+    protected ArchiveIndex createIndex(Map<String, ArchiveIndex.Entry> entries) {
+        return new ArchiveIndex(hashAlgorithm, ArchiveIndex.Layout.NATIVE, 0, null, entries);
+    }
+
+    private static Path deltaPath(Path file) {
+        return file.resolveSibling(file.getFileName() + RegionDelta.SUFFIX);
+    }
+
+    private record RegionDeltaInputSupplier(Path path, String name, byte[] data, FileTreeHashBuilder hashTreeBuilder, BrokenFileHandler brokenFileHandler) implements InputSupplier {
+        public InputStream getInputStream() { return new HashingInputStream(new ByteArrayInputStream(data), path, hashTreeBuilder, brokenFileHandler); }
+
+        public Optional<Path> getPath() { return Optional.empty(); }
+
+        public Optional<BasicFileAttributes> getAttributes() { return Optional.empty(); }
+
+        public String getName() { return name; }
+
+        public long size() { return data.length; }
+
+        public InputStream get() { return getInputStream(); }
+    }
+
     private record StatusFileInputSupplier(byte[] data) implements InputSupplier {
         public InputStream getInputStream() { return new ByteArrayInputStream(data); }
 
         public Optional<Path> getPath() { return Optional.empty(); }
 
+        public Optional<BasicFileAttributes> getAttributes() { return Optional.empty(); }
+
         public String getName() { return CompressionStatus.DATA_FILENAME; }
 
         public long size() { return data.length; }
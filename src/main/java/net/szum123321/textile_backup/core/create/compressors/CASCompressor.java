@@ -0,0 +1,132 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors;
+
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.BackupManifest;
+import net.szum123321.textile_backup.core.ChunkStore;
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import net.szum123321.textile_backup.core.create.InputSupplier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Splits files into chunks and puts them into the shared {@link ChunkStore}. The archive itself is only an index.
+ * Chunks are hashed and compressed on coreLimit threads. Reading the next file doesn't wait for the chunks of the previous
+ * one to be stored, the index is only written once all of them are done.
+ */
+public class CASCompressor extends AbstractCompressor {
+    private final static ConfigHelper config = ConfigHelper.INSTANCE;
+
+    private ChunkStore store;
+    private ExecutorService executorService;
+    private Semaphore inFlight;
+    private final List<PendingEntry> pending = new ArrayList<>();
+
+    public static CASCompressor getInstance() {
+        return new CASCompressor();
+    }
+
+    @Override
+    public BackupManifest createArchive(Path inputFile, Path outputFile, ExecutableBackup ctx, int coreLimit, @Nullable BackupManifest base) throws IOException, ExecutionException, InterruptedException {
+        ChunkStore.lock();
+        try {
+            return super.createArchive(inputFile, outputFile, ctx, coreLimit, base);
+        } finally {
+            ChunkStore.unlock();
+        }
+    }
+
+    @Override
+    protected OutputStream createArchiveOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
+        store = new ChunkStore(Utilities.getBackupRootPath(Utilities.getLevelName(ctx.server())));
+        executorService = Executors.newFixedThreadPool(coreLimit);
+        //Limits the number of chunks kept in memory
+        inFlight = new Semaphore(coreLimit * 4);
+
+        DataOutputStream out = new DataOutputStream(stream);
+        ChunkStore.writeIndexHeader(out, hashAlgorithm);
+
+        return out;
+    }
+
+    @Override
+    protected void addEntry(InputSupplier input, OutputStream arc) throws IOException {
+        List<Future<ChunkStore.Key>> chunks = new ArrayList<>();
+        long size = 0;
+
+        try (InputStream in = input.getInputStream()) {
+            while(true) {
+                byte[] buffer = new byte[ChunkStore.CHUNK_SIZE];
+                int len = in.readNBytes(buffer, 0, buffer.length);
+
+                if(len == 0) break;
+
+                size += len;
+
+                inFlight.acquireUninterruptibly();
+                chunks.add(executorService.submit(() -> {
+                    try {
+                        return store.put(buffer, len, config.get().compression);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+
+                if(len < buffer.length) break;
+            }
+        }
+
+        pending.add(new PendingEntry(input.getName(), size, chunks));
+    }
+
+    @Override
+    protected void finish(OutputStream arc) throws IOException {
+        for(PendingEntry entry: pending) {
+            List<ChunkStore.Key> keys = new ArrayList<>(entry.chunks().size());
+
+            try {
+                for(Future<ChunkStore.Key> f: entry.chunks()) keys.add(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while storing: " + entry.name());
+            } catch (ExecutionException e) {
+                throw new IOException("An exception occurred while storing: " + entry.name(), e.getCause());
+            }
+
+            ChunkStore.writeIndexEntry((DataOutputStream) arc, new ChunkStore.IndexEntry(entry.name(), entry.size(), keys));
+        }
+
+        ChunkStore.writeIndexEnd((DataOutputStream) arc);
+    }
+
+    @Override
+    protected void close() {
+        //If the backup failed some of the chunks might still be waiting
+        if(executorService != null) executorService.shutdownNow();
+    }
+
+    private record PendingEntry(String name, long size, List<Future<ChunkStore.Key>> chunks) { }
+}
@@ -0,0 +1,130 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors;
+
+import net.szum123321.textile_backup.core.region.RegionFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decides whether a file is worth compressing. Most of what Minecraft writes is already compressed (.dat and .nbt are gzip,
+ * region files hold individually compressed chunks), so running it through DEFLATE again only burns CPU time.
+ * <br><br>
+ * We first look for a known magic number, then at the compression type of a few chunks for region files,
+ * and finally fall back to the byte entropy of the beginning of the file.
+ */
+public class ContentSniffer {
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    //Smaller files aren't worth the extra read
+    private static final int MIN_SIZE = 512;
+    //In bits per byte. Compressed data sits just under 8
+    private static final double ENTROPY_THRESHOLD = 7.5;
+    private static final int REGION_SAMPLES = 4;
+
+    private static final byte[][] MAGIC = {
+            { 0x1F, (byte) 0x8B },                                   //gzip
+            { 0x50, 0x4B, 0x03, 0x04 },                              //zip
+            { 0x28, (byte) 0xB5, 0x2F, (byte) 0xFD },                //zstd
+            { (byte) 0xFD, 0x37, 0x7A, 0x58, 0x5A, 0x00 },           //xz
+            { 0x42, 0x5A, 0x68 },                                    //bzip2
+            { 0x04, 0x22, 0x4D, 0x18 },                              //lz4
+            { (byte) 0x89, 0x50, 0x4E, 0x47 },                       //png
+            { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF }                //jpeg
+    };
+
+    public static boolean isPrecompressed(Path file, long size) throws IOException {
+        if(size < MIN_SIZE) return false;
+
+        if(RegionFile.isRegionFile(file.getFileName().toString()) && size > RegionFile.HEADER_SIZE)
+            return isRegionCompressed(file);
+
+        byte[] sample;
+        try (InputStream in = Files.newInputStream(file)) {
+            sample = in.readNBytes(SAMPLE_SIZE);
+        }
+
+        for(byte[] magic: MAGIC) {
+            if(startsWith(sample, magic)) return true;
+        }
+
+        return entropy(sample) > ENTROPY_THRESHOLD;
+    }
+
+    /**
+     * Every chunk starts with its length (4 bytes) followed by the compression type: 1 - gzip, 2 - zlib, 3 - none, 4 - lz4.
+     */
+    private static boolean isRegionCompressed(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(RegionFile.HEADER_SIZE / 2);
+            channel.read(header, 0);
+            header.flip();
+
+            int compressed = 0, samples = 0;
+            ByteBuffer chunk = ByteBuffer.allocate(5);
+
+            for(int slot = 0; slot < RegionFile.SLOTS && samples < REGION_SAMPLES && header.remaining() >= 4; slot++) {
+                int location = header.getInt();
+                long offset = (location >>> 8) * (long) RegionFile.SECTOR_SIZE;
+
+                if(offset < RegionFile.HEADER_SIZE) continue;
+
+                chunk.clear();
+                if(channel.read(chunk, offset) < chunk.capacity()) continue;
+
+                byte type = chunk.get(4);
+                //Chunks which didn't fit into the region are stored in .mcc files, the flag is the highest bit
+                if((type & 0x7F) != 3) compressed++;
+                samples++;
+            }
+
+            //Header only and mostly empty regions compress very well
+            return samples > 0 && compressed * 2 > samples;
+        }
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if(data.length < prefix.length) return false;
+
+        for(int i = 0; i < prefix.length; i++) {
+            if(data[i] != prefix[i]) return false;
+        }
+
+        return true;
+    }
+
+    private static double entropy(byte[] data) {
+        int[] histogram = new int[256];
+        for(byte b: data) histogram[b & 0xFF]++;
+
+        double entropy = 0;
+        for(int n: histogram) {
+            if(n == 0) continue;
+            double p = (double) n / data.length;
+            entropy -= p * Math.log(p);
+        }
+
+        return entropy / Math.log(2);
+    }
+}
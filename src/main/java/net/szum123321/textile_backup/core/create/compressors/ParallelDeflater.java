@@ -0,0 +1,218 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * pigz style DEFLATE of a single stream on multiple threads. The input is cut into blocks, each one compressed on its own
+ * with the last 32 KiB of the block before it as the dictionary. All but the last block end with a sync flush,
+ * which leaves them byte aligned, so the compressed blocks can simply be put one after another.
+ * <br><br>
+ * DEFLATE can't reach back more than 32 KiB anyway, so against a single Deflater we only lose a few bytes per block.
+ * The crc of the whole stream is combined from the crc of each block.
+ */
+public class ParallelDeflater {
+    public final static int BLOCK_SIZE = 128 * 1024;
+    private final static int DICTIONARY_SIZE = 32 * 1024;
+
+    private final ExecutorService executorService;
+    //Shared between all the entries being compressed at once, so that the number of blocks in memory stays bounded
+    private final Semaphore blocksInFlight;
+    private final int level;
+    private final WorkerUtilization.Pool utilization;
+
+    private final Deque<Future<Block>> pending = new ArrayDeque<>();
+    private long crc = 0, size = 0;
+
+    public ParallelDeflater(ExecutorService executorService, Semaphore blocksInFlight, int level, WorkerUtilization.Pool utilization) {
+        this.executorService = executorService;
+        this.blocksInFlight = blocksInFlight;
+        this.level = level;
+        this.utilization = utilization;
+    }
+
+    /**
+     * Writes a raw DEFLATE stream of the whole input
+     */
+    public void deflate(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] previous = null;
+            byte[] current = in.readNBytes(BLOCK_SIZE);
+
+            while(true) {
+                //A short read means we've reached the end, otherwise we have to look ahead to know if this is the last block
+                byte[] next = current.length == BLOCK_SIZE ? in.readNBytes(BLOCK_SIZE) : new byte[0];
+                boolean last = next.length == 0;
+
+                acquire(out);
+
+                final byte[] data = current, dictionary = previous;
+                pending.addLast(executorService.submit(utilization.track(() -> compressBlock(data, dictionary, last))));
+
+                while(!pending.isEmpty() && pending.peekFirst().isDone()) writeNext(out);
+
+                if(last) break;
+
+                previous = current;
+                current = next;
+            }
+
+            while(!pending.isEmpty()) writeNext(out);
+        } finally {
+            for(var future: pending) future.cancel(true);
+            blocksInFlight.release(pending.size());
+            pending.clear();
+        }
+    }
+
+    public long getCrc() { return crc; }
+
+    public long getSize() { return size; }
+
+    private void acquire(OutputStream out) throws IOException {
+        try {
+            while(!blocksInFlight.tryAcquire()) {
+                //Our own blocks might be the ones holding the permits
+                if(pending.isEmpty()) {
+                    blocksInFlight.acquire();
+                    return;
+                }
+
+                writeNext(out);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block to be compressed!");
+        }
+    }
+
+    private void writeNext(OutputStream out) throws IOException {
+        Block block;
+
+        try {
+            block = pending.peekFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block to be compressed!");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException ioe) throw ioe;
+            throw new IOException("An exception occurred while compressing a block!", e.getCause());
+        }
+
+        pending.removeFirst();
+        blocksInFlight.release();
+
+        out.write(block.data());
+        crc = crc32Combine(crc, block.crc(), block.length());
+        size += block.length();
+    }
+
+    private Block compressBlock(byte[] data, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] buffer = new byte[16 * 1024];
+
+        try {
+            if(dictionary != null)
+                deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+
+            deflater.setInput(data);
+
+            if(last) {
+                deflater.finish();
+                while(!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+            } else {
+                //Filling up the whole buffer means there might be more to come
+                int len;
+                do {
+                    len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, len);
+                } while(len == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 sum = new CRC32();
+        sum.update(data);
+
+        return new Block(out.toByteArray(), sum.getValue(), data.length);
+    }
+
+    /**
+     * crc32 of two pieces put together, given the crc of each and the length of the second one. Port of zlib's crc32_combine
+     */
+    static long crc32Combine(long crc1, long crc2, long len2) {
+        if(len2 <= 0) return crc1;
+
+        long[] even = new long[32], odd = new long[32];
+
+        //Operator for a single zero bit
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for(int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        gf2MatrixSquare(even, odd); //2 zero bits
+        gf2MatrixSquare(odd, even); //4 zero bits
+
+        //Apply len2 zero bytes to crc1, the first square gives the operator for one zero byte
+        do {
+            gf2MatrixSquare(even, odd);
+            if((len2 & 1) != 0) crc1 = gf2MatrixTimes(even, crc1);
+            len2 >>= 1;
+
+            if(len2 == 0) break;
+
+            gf2MatrixSquare(odd, even);
+            if((len2 & 1) != 0) crc1 = gf2MatrixTimes(odd, crc1);
+            len2 >>= 1;
+        } while(len2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for(int i = 0; vector != 0; i++, vector >>>= 1)
+            if((vector & 1) != 0) sum ^= matrix[i];
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for(int n = 0; n < 32; n++) square[n] = gf2MatrixTimes(matrix, matrix[n]);
+    }
+
+    private record Block(byte[] data, long crc, int length) { }
+}
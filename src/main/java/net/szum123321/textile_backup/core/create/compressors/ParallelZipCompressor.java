@@ -20,50 +20,66 @@ package net.szum123321.textile_backup.core.create.compressors;
 
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
-import net.szum123321.textile_backup.core.NoSpaceLeftOnDeviceException;
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.BackupManifest;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import net.szum123321.textile_backup.core.create.FileInputStreamSupplier;
 import net.szum123321.textile_backup.core.create.InputSupplier;
 import org.apache.commons.compress.archivers.zip.*;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Objects;
-import java.util.concurrent.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutionException;
 import java.util.zip.ZipEntry;
 
-/*
-	This part of code is based on:
-	https://stackoverflow.com/questions/54624695/how-to-implement-parallel-zip-creation-with-scatterzipoutputstream-with-zip64-su
-	answer by:
-	https://stackoverflow.com/users/2987755/dkb
-*/
+/**
+ * Compresses the entries on multiple threads with {@link ParallelZipWriter}. Nothing goes through the TMP directory,
+ * compressed entries are held in memory, and only the ones too big for the budget are spilled next to the archive
+ */
 public class ParallelZipCompressor extends ZipCompressor {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    private final static ConfigHelper config = ConfigHelper.INSTANCE;
 
-    //These fields are used to discriminate against the issue #51
-    private final static SimpleStackTraceElement[] STACKTRACE_NO_SPACE_ON_LEFT_ON_DEVICE = {
-            new SimpleStackTraceElement("sun.nio.ch.FileDispatcherImpl", "write0", true),
-            new SimpleStackTraceElement("sun.nio.ch.FileDispatcherImpl", "write", false),
-            new SimpleStackTraceElement("sun.nio.ch.IOUtil", "writeFromNativeBuffer", false),
-            new SimpleStackTraceElement("sun.nio.ch.IOUtil", "write", false),
-            new SimpleStackTraceElement("sun.nio.ch.FileChannelImpl", "write", false),
-            new SimpleStackTraceElement("java.nio.channels.Channels", "writeFullyImpl", false),
-            new SimpleStackTraceElement("java.nio.channels.Channels", "writeFully", false),
-            new SimpleStackTraceElement("java.nio.channels.Channels$1", "write", false),
-            new SimpleStackTraceElement("org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore", "writeOut", false)
-    };
-
-    private ParallelScatterZipCreator scatterZipCreator;
+    private Path spillDirectory;
+    private ParallelZipWriter writer;
 
     public static ParallelZipCompressor getInstance() {
         return new ParallelZipCompressor();
     }
 
+    @Override
+    public BackupManifest createArchive(Path inputFile, Path outputFile, ExecutableBackup ctx, int coreLimit, @Nullable BackupManifest base) throws IOException, ExecutionException, InterruptedException {
+        spillDirectory = outputFile.toAbsolutePath().getParent();
+        return super.createArchive(inputFile, outputFile, ctx, coreLimit, base);
+    }
+
     @Override
     protected OutputStream createArchiveOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) {
-        scatterZipCreator = new ParallelScatterZipCreator(Executors.newFixedThreadPool(coreLimit));
-        return super.createArchiveOutputStream(stream, ctx, coreLimit);
+        ZipArchiveOutputStream arc = (ZipArchiveOutputStream) super.createArchiveOutputStream(stream, ctx, coreLimit);
+
+        writer = new ParallelZipWriter(
+                arc,
+                coreLimit,
+                config.get().zipMemoryBudget * 1024L * 1024L,
+                config.get().compression,
+                spillDirectory,
+                utilization,
+                (input, e) -> {
+                    //The exception comes from a worker, so the file has to be marked here rather than in AbstractCompressor
+                    if (input instanceof FileInputStreamSupplier file) file.brokenFileHandler().handle(file.path(), e);
+                    if (config.get().integrityVerificationMode.isStrict()) throw e;
+                    log.sendErrorAL(ctx, "An exception occurred while trying to compress: {}", input.getName(), e);
+                }
+        );
+
+        return arc;
+    }
+
+    @Override
+    protected boolean compressesEntriesInParallel() {
+        return true;
     }
 
     @Override
@@ -72,56 +88,27 @@ public class ParallelZipCompressor extends ZipCompressor {
         if (input.getPath().isEmpty()) {
             entry = new ZipArchiveEntry(input.getName());
             entry.setMethod(ZipEntry.STORED);
-            entry.setSize(input.size());
         } else {
             Path file = input.getPath().get();
-            entry = ((ZipArchiveOutputStream) arc).createArchiveEntry(file, input.getName());
-            if (ZipCompressor.isDotDat(file.toString())) {
-                entry.setMethod(ZipEntry.STORED);
-                entry.setSize(Files.size(file));
-                entry.setCompressedSize(Files.size(file));
-                entry.setCrc(getCRC(file));
-            } else entry.setMethod(ZipEntry.DEFLATED);
+            BasicFileAttributes attrs = input.getAttributes().orElseThrow();
+            entry = createEntry(input.getName(), attrs);
+            //Sizes and the crc are filled in by the writer once the entry has been compressed
+            if (ContentSniffer.isPrecompressed(file, attrs.size())) entry.setMethod(ZipEntry.STORED);
+            else entry.setMethod(ZipEntry.DEFLATED);
         }
 
         entry.setTime(System.currentTimeMillis());
 
-        scatterZipCreator.addArchiveEntry(entry, input);
+        writer.addEntry(entry, input);
     }
 
     @Override
-    protected void finish(OutputStream arc) throws InterruptedException, IOException, ExecutionException {
-		/*
-			This is perhaps the most dreadful line of this whole mess
-			This line causes the infamous Out of space error (#20 and #80)
-		*/
-        try {
-            scatterZipCreator.writeTo((ZipArchiveOutputStream) arc);
-        } catch (ExecutionException e) {
-            Throwable cause;
-            if ((cause = e.getCause()).getClass().equals(IOException.class)) {
-                //The out of space exception is thrown at sun.nio.ch.FileDispatcherImpl.write0(Native Method)
-                boolean match = (cause.getStackTrace().length >= STACKTRACE_NO_SPACE_ON_LEFT_ON_DEVICE.length);
-                if (match) {
-                    for (int i = 0; i < STACKTRACE_NO_SPACE_ON_LEFT_ON_DEVICE.length && match; i++)
-                        if (!STACKTRACE_NO_SPACE_ON_LEFT_ON_DEVICE[i].matches(cause.getStackTrace()[i])) match = false;
-
-                    //For clarity's sake let's not throw the ExecutionException itself rather only the cause, as the EE is just the wrapper
-                    if (match) throw new NoSpaceLeftOnDeviceException(cause);
-                }
-            }
-
-            throw e;
-        }
+    protected void finish(OutputStream arc) throws IOException {
+        writer.flush();
     }
 
-    private record SimpleStackTraceElement(
-            String className,
-            String methodName,
-            boolean isNative
-    ) {
-        public boolean matches(StackTraceElement o) {
-            return (isNative == o.isNativeMethod()) && Objects.equals(className, o.getClassName()) && Objects.equals(methodName, o.getMethodName());
-        }
+    @Override
+    protected void close() {
+        if (writer != null) writer.close();
     }
-}
+}
\ No newline at end of file
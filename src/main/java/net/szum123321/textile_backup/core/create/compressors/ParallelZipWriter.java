@@ -0,0 +1,376 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.create.InputSupplier;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compresses zip entries on worker threads and writes them out in the order they were added, straight into the archive.
+ * <br><br>
+ * Compressed data is kept in segments taken from a pool with a fixed memory budget. An entry which would take more
+ * than its share of the budget, or which comes when the pool is empty, is spilled to a temporary file next to the archive.
+ * Workers never wait for memory, so the entry which is written out next can always finish.
+ * Spill files left over by a crash are removed on the next start, see {@link #deleteSpillFiles(Path)}.
+ * <br><br>
+ * Big entries are additionally split into blocks compressed on a separate pool, see {@link ParallelDeflater}.
+ * Otherwise the largest file of the world would keep one core busy long after all the others are done.
+ * <br><br>
+ * Closing the writer doesn't close the archive, that's up to whoever created it.
+ */
+public class ParallelZipWriter implements Closeable {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    private final static String SPILL_PREFIX = ".textile_zip_";
+    private final static String SPILL_SUFFIX = ".tmp";
+    private final static int SEGMENT_SIZE = 64 * 1024;
+    private final static int READ_BUFFER_SIZE = 64 * 1024;
+    private final static long PARALLEL_DEFLATE_THRESHOLD = 8L * ParallelDeflater.BLOCK_SIZE;
+
+    private final ZipArchiveOutputStream arc;
+    private final ExecutorService executorService;
+    //Null if there's only a single thread, no point in splitting the entries then
+    private final ExecutorService blockExecutorService;
+    private final Semaphore blocksInFlight;
+    private final SegmentPool pool;
+    private final Path spillDirectory;
+    private final int level;
+    private final int maxInFlight;
+    //An entry may take at most this many segments, so that a single huge file can't starve the others
+    private final int maxSegmentsPerEntry;
+    private final Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+    private final FailureHandler failureHandler;
+    private final WorkerUtilization.Pool entryUtilization;
+    private final WorkerUtilization.Pool blockUtilization;
+
+    private boolean closed = false;
+
+    public ParallelZipWriter(ZipArchiveOutputStream arc, int threads, long memoryBudget, int level, Path spillDirectory, WorkerUtilization utilization, FailureHandler failureHandler) {
+        this.arc = arc;
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.blockExecutorService = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        this.blocksInFlight = new Semaphore(threads * 4);
+        this.level = level;
+        this.spillDirectory = spillDirectory;
+        this.failureHandler = failureHandler;
+        this.entryUtilization = utilization.pool("entries", threads);
+        this.blockUtilization = blockExecutorService != null ? utilization.pool("blocks", threads) : null;
+
+        int segments = (int) Math.max(threads, memoryBudget / SEGMENT_SIZE);
+        this.pool = new SegmentPool(segments);
+        this.maxSegmentsPerEntry = Math.max(1, segments / threads);
+        this.maxInFlight = threads * 4;
+    }
+
+    /**
+     * @param entry has to have its method set. Sizes and crc are filled in once the entry has been compressed
+     */
+    public void addEntry(ZipArchiveEntry entry, InputSupplier input) throws IOException {
+        pending.addLast(executorService.submit(entryUtilization.track(() -> compress(entry, input))));
+
+        while(pending.size() >= maxInFlight) writeNext();
+        while(!pending.isEmpty() && pending.peekFirst().isDone()) writeNext();
+    }
+
+    /**
+     * Waits for all the entries added so far and writes them out
+     */
+    public void flush() throws IOException {
+        while(!pending.isEmpty()) writeNext();
+        arc.flush();
+    }
+
+    /**
+     * Stops the workers. Entries which haven't been written out by now are dropped
+     */
+    @Override
+    public void close() {
+        if(closed) return;
+        closed = true;
+
+        List<Runnable> dropped = executorService.shutdownNow();
+        if(blockExecutorService != null) blockExecutorService.shutdownNow();
+
+        //Whatever is left after a failure has to give back its memory and delete its spill file
+        for(var future: pending) {
+            if(dropped.contains(future)) continue;
+
+            try {
+                future.get().buffer().release();
+            } catch (ExecutionException ignored) {
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        pending.clear();
+    }
+
+    /**
+     * Removes spill files which weren't deleted because the server went down in the middle of a backup
+     */
+    public static void deleteSpillFiles(Path directory) {
+        if(Files.notExists(directory)) return;
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            for(Path file: stream.filter(ParallelZipWriter::isSpillFile).toList()) {
+                Files.deleteIfExists(file);
+                log.info("Deleted a leftover temporary file: {}", file.getFileName());
+            }
+        } catch (IOException e) {
+            log.error("An exception occurred while deleting leftover temporary files!", e);
+        }
+    }
+
+    private static boolean isSpillFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SPILL_PREFIX) && name.endsWith(SPILL_SUFFIX) && Files.isRegularFile(file);
+    }
+
+    private void writeNext() throws IOException {
+        CompressedEntry compressed;
+
+        try {
+            compressed = pending.peekFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an entry to be compressed!");
+        } catch (ExecutionException e) {
+            throw new IOException("An exception occurred while compressing an entry!", e.getCause());
+        }
+
+        pending.removeFirst();
+
+        try {
+            if(compressed.exception() != null) {
+                failureHandler.handle(compressed.input(), compressed.exception());
+                return;
+            }
+
+            try (InputStream in = compressed.buffer().getInputStream()) {
+                arc.addRawArchiveEntry(compressed.entry(), in);
+            }
+        } finally {
+            compressed.buffer().release();
+        }
+    }
+
+    private CompressedEntry compress(ZipArchiveEntry entry, InputSupplier input) {
+        EntryBuffer buffer = new EntryBuffer();
+        boolean deflate = entry.getMethod() == ZipEntry.DEFLATED;
+
+        try (CountingInputStream in = new CountingInputStream(input.getInputStream())) {
+            long crc;
+
+            if(deflate && blockExecutorService != null && input.size() >= PARALLEL_DEFLATE_THRESHOLD) {
+                ParallelDeflater deflater = new ParallelDeflater(blockExecutorService, blocksInFlight, level, blockUtilization);
+                deflater.deflate(in, buffer);
+                crc = deflater.getCrc();
+            } else crc = copy(in, buffer, deflate);
+
+            buffer.finish();
+
+            entry.setSize(in.getByteCount());
+            entry.setCompressedSize(buffer.size());
+            entry.setCrc(crc);
+        } catch (IOException e) {
+            buffer.release();
+            return new CompressedEntry(entry, input, buffer, e);
+        }
+
+        return new CompressedEntry(entry, input, buffer, null);
+    }
+
+    /**
+     * @return crc of the input
+     */
+    private long copy(InputStream in, EntryBuffer buffer, boolean deflate) throws IOException {
+        CRC32 crc = new CRC32();
+        Deflater deflater = deflate ? new Deflater(level, true) : null;
+
+        try {
+            byte[] data = new byte[READ_BUFFER_SIZE];
+            byte[] out = deflate ? new byte[READ_BUFFER_SIZE] : null;
+            int len;
+
+            while((len = in.read(data)) != -1) {
+                crc.update(data, 0, len);
+
+                if(deflate) {
+                    deflater.setInput(data, 0, len);
+                    while(!deflater.needsInput()) buffer.write(out, 0, deflater.deflate(out));
+                } else buffer.write(data, 0, len);
+            }
+
+            if(deflate) {
+                deflater.finish();
+                while(!deflater.finished()) buffer.write(out, 0, deflater.deflate(out));
+            }
+        } finally {
+            if(deflater != null) deflater.end();
+        }
+
+        return crc.getValue();
+    }
+
+    public interface FailureHandler {
+        void handle(InputSupplier input, IOException e) throws IOException;
+    }
+
+    private record CompressedEntry(ZipArchiveEntry entry, InputSupplier input, EntryBuffer buffer, IOException exception) { }
+
+    /**
+     * Compressed data of a single entry. Lives in pooled segments, unless it turned out too big for them
+     */
+    private class EntryBuffer extends OutputStream {
+        private final List<byte[]> segments = new ArrayList<>();
+        private int position = SEGMENT_SIZE;
+        private long size = 0;
+
+        private Path spillFile = null;
+        private OutputStream spill = null;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte @NotNull [] b, int off, int len) throws IOException {
+            size += len;
+
+            if(spill != null) {
+                spill.write(b, off, len);
+                return;
+            }
+
+            while(len > 0) {
+                if(position == SEGMENT_SIZE) {
+                    byte[] segment = segments.size() < maxSegmentsPerEntry ? pool.tryAcquire() : null;
+
+                    if(segment == null) {
+                        startSpilling();
+                        spill.write(b, off, len);
+                        return;
+                    }
+
+                    segments.add(segment);
+                    position = 0;
+                }
+
+                int n = Math.min(len, SEGMENT_SIZE - position);
+                System.arraycopy(b, off, segments.get(segments.size() - 1), position, n);
+
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        long size() { return size; }
+
+        //Whatever has been collected in memory so far goes to the file first
+        private void startSpilling() throws IOException {
+            spillFile = Files.createTempFile(spillDirectory, SPILL_PREFIX, SPILL_SUFFIX);
+            spill = new BufferedOutputStream(Files.newOutputStream(spillFile));
+
+            for(int i = 0; i < segments.size(); i++)
+                spill.write(segments.get(i), 0, i == segments.size() - 1 ? position : SEGMENT_SIZE);
+
+            pool.release(segments);
+            segments.clear();
+        }
+
+        void finish() throws IOException {
+            if(spill != null) spill.close();
+        }
+
+        InputStream getInputStream() throws IOException {
+            if(spillFile != null) return new BufferedInputStream(Files.newInputStream(spillFile));
+
+            List<InputStream> streams = new ArrayList<>(segments.size());
+            for(int i = 0; i < segments.size(); i++)
+                streams.add(new ByteArrayInputStream(segments.get(i), 0, i == segments.size() - 1 ? position : SEGMENT_SIZE));
+
+            return new SequenceInputStream(Collections.enumeration(streams));
+        }
+
+        void release() {
+            pool.release(segments);
+            segments.clear();
+
+            if(spillFile == null) return;
+
+            try {
+                if(spill != null) spill.close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException ignored) { }
+
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Segments are reused between entries, only the budget caps how many of them can exist at once
+     */
+    private static class SegmentPool {
+        private final Deque<byte[]> free = new ArrayDeque<>();
+        private int available;
+
+        SegmentPool(int capacity) {
+            this.available = capacity;
+        }
+
+        synchronized byte[] tryAcquire() {
+            if(available == 0) return null;
+            available--;
+
+            byte[] segment = free.pollFirst();
+            return segment != null ? segment : new byte[SEGMENT_SIZE];
+        }
+
+        synchronized void release(List<byte[]> segments) {
+            free.addAll(segments);
+            available += segments.size();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of how much of the compression time each worker of each pool actually spent working.
+ * Per worker rather than per pool, as an average hides a single worker still busy with a big file while the others sit idle.
+ * CPU time is used where available, so that waiting on other tasks or on the disk doesn't count.
+ * <br><br>
+ * Only the compression itself is measured, from the first task handed out until {@link #stop()},
+ * walking the world and hashing the files before that don't count
+ */
+public class WorkerUtilization {
+    private final static ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final static long NOT_SET = Long.MIN_VALUE;
+
+    private final boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+    private final List<Pool> pools = new CopyOnWriteArrayList<>();
+    private final AtomicLong start = new AtomicLong(NOT_SET);
+    private final AtomicLong end = new AtomicLong(NOT_SET);
+
+    /**
+     * @param size number of threads of the pool
+     */
+    public Pool pool(String name, int size) {
+        Pool pool = new Pool(name, size);
+        pools.add(pool);
+        return pool;
+    }
+
+    /**
+     * Ends the measured time. Called once all the entries have been compressed
+     */
+    public void stop() {
+        if(start.get() != NOT_SET) end.compareAndSet(NOT_SET, System.nanoTime());
+    }
+
+    public boolean isEmpty() { return start.get() == NOT_SET; }
+
+    /**
+     * @return utilization of each worker, busiest first, grouped by pool. Like: entries: 97% 95% 90% 42%, blocks: 40% 35% 0% 0%
+     */
+    @Override
+    public String toString() {
+        long last = end.get() != NOT_SET ? end.get() : System.nanoTime();
+        double elapsed = Math.max(1, last - start.get());
+
+        return pools.stream()
+                .filter(pool -> !pool.busy.isEmpty())
+                .map(pool -> pool.name + ": " + pool.toString(elapsed))
+                .collect(Collectors.joining(", "));
+    }
+
+    private long now() {
+        return cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    public class Pool {
+        private final String name;
+        private final int size;
+        private final Map<Thread, LongAdder> busy = new ConcurrentHashMap<>();
+
+        private Pool(String name, int size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        public <T> Callable<T> track(Callable<T> task) {
+            start.compareAndSet(NOT_SET, System.nanoTime());
+
+            return () -> {
+                long begin = now();
+                try {
+                    return task.call();
+                } finally {
+                    busy.computeIfAbsent(Thread.currentThread(), t -> new LongAdder()).add(now() - begin);
+                }
+            };
+        }
+
+        //Workers which never got a task count as idle
+        private String toString(double elapsed) {
+            return Stream.concat(
+                            busy.values().stream().map(LongAdder::sum),
+                            Stream.generate(() -> 0L).limit(Math.max(0, size - busy.size()))
+                    )
+                    .sorted((a, b) -> Long.compare(b, a))
+                    .map(t -> Math.round(Math.min(1, t / elapsed) * 100) + "%")
+                    .collect(Collectors.joining(" "));
+        }
+    }
+}
\ No newline at end of file
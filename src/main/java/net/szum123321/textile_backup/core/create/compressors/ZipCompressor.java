@@ -30,6 +30,7 @@ import org.apache.commons.compress.utils.IOUtils;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
@@ -63,8 +64,8 @@ public class ZipCompressor extends AbstractCompressor {
                 entry = new ZipArchiveEntry(input.getName());
 
                 //It's basically just
-                byte[] buff = new byte[(int) input.size()];
-                int len = input.getInputStream().read(buff);
+                byte[] buff = fileInputStream.readAllBytes();
+                int len = buff.length;
                 Checksum sum = new CRC32();
                 sum.update(buff, 0, len);
                 entry.setCrc(sum.getValue());
@@ -77,11 +78,11 @@ public class ZipCompressor extends AbstractCompressor {
                 arc.write(buff, 0, len);
             } else {
                 Path file = input.getPath().get();
-                entry = ((ZipArchiveOutputStream) arc).createArchiveEntry(file, input.getName());
-                if (isDotDat(file.toString())) {
+                BasicFileAttributes attrs = input.getAttributes().orElseThrow();
+                entry = createEntry(input.getName(), attrs);
+                if (ContentSniffer.isPrecompressed(file, attrs.size())) {
                     entry.setMethod(ZipEntry.STORED);
-                    entry.setSize(Files.size(file));
-                    entry.setCompressedSize(Files.size(file));
+                    entry.setCompressedSize(attrs.size());
                     entry.setCrc(getCRC(file));
                 } else entry.setMethod(ZipEntry.DEFLATED);
 
@@ -94,10 +95,12 @@ public class ZipCompressor extends AbstractCompressor {
         }
     }
 
-    //*.dat files are already compressed with gzip which uses the same algorithm as zip so there's no point in compressing it again
-    protected static boolean isDotDat(String filename) {
-        String[] arr = filename.split("\\.");
-        return arr[arr.length - 1].contains("dat"); //includes dat_old
+    //Built from the attributes collected while listing the files, createArchiveEntry would query the filesystem all over again
+    protected static ZipArchiveEntry createEntry(String name, BasicFileAttributes attrs) {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setSize(attrs.size());
+        entry.setLastModifiedTime(attrs.lastModifiedTime());
+        return entry;
     }
 
     protected static long getCRC(Path file) throws IOException {
@@ -18,23 +18,44 @@
 
 package net.szum123321.textile_backup.core.create.compressors.tar;
 
+import net.szum123321.textile_backup.core.ArchiveIndex;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
 import net.szum123321.textile_backup.core.create.compressors.AbstractCompressor;
 import net.szum123321.textile_backup.core.create.InputSupplier;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
 import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 
 import java.io.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
 
 public class AbstractTarArchiver extends AbstractCompressor {
+    //The status file comes last, so the hash algorithm is also put into the first entry's pax header. Restore needs it right away
+    public static final String HASH_ALGORITHM_PAX_HEADER = "TEXTILE.hash";
+
+    private boolean firstEntry = true;
+
+    private OutputStream compressorStream, fileStream;
+    private CountingOutputStream counter;
+    //Where the data of each entry starts in the uncompressed tar stream
+    private final Map<String, Long> entryOffsets = new HashMap<>();
+
     protected OutputStream getCompressorOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
         return stream;
     }
 
     @Override
     protected OutputStream createArchiveOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
-        TarArchiveOutputStream tar = new TarArchiveOutputStream(getCompressorOutputStream(stream, ctx, coreLimit));
+        fileStream = stream;
+        compressorStream = getCompressorOutputStream(stream, ctx, coreLimit);
+        counter = new CountingOutputStream(compressorStream);
+
+        //With single record blocks every header reaches the counter as soon as it's written, so the count is exactly where the data starts
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(counter, TarConstants.DEFAULT_RCDSIZE);
         tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
         tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
 
@@ -48,14 +69,39 @@ public class AbstractTarArchiver extends AbstractCompressor {
             if(input.getPath().isEmpty()) { //Virtual entry
                 entry = new TarArchiveEntry(input.getName());
                 entry.setSize(input.size());
-            } else
-                entry = ((TarArchiveOutputStream) arc).createArchiveEntry(input.getPath().get(), input.getName());
+            } else {
+                //Built from the attributes collected while listing the files, createArchiveEntry would query the filesystem all over again
+                BasicFileAttributes attrs = input.getAttributes().orElseThrow();
+                entry = new TarArchiveEntry(input.getName());
+                entry.setSize(attrs.size());
+                entry.setModTime(attrs.lastModifiedTime());
+            }
+
+            if(firstEntry) {
+                entry.addPaxHeader(HASH_ALGORITHM_PAX_HEADER, hashAlgorithm.name());
+                firstEntry = false;
+            }
 
             ((TarArchiveOutputStream)arc).putArchiveEntry(entry);
+            entryOffsets.put(input.getName(), counter.getByteCount());
 
             IOUtils.copy(fileInputStream, arc);
 
             ((TarArchiveOutputStream)arc).closeArchiveEntry();
         }
     }
+
+    @Override
+    protected ArchiveIndex createIndex(Map<String, ArchiveIndex.Entry> entries) {
+        Map<String, ArchiveIndex.Entry> located = new HashMap<>(entries.size());
+        entries.forEach((name, e) -> located.put(name, new ArchiveIndex.Entry(entryOffsets.getOrDefault(name, -1L), e.size(), e.hash())));
+
+        if(compressorStream == fileStream)
+            return new ArchiveIndex(hashAlgorithm, ArchiveIndex.Layout.RAW, 0, null, located);
+
+        if(compressorStream instanceof ParallelBlockOutputStream blocks)
+            return new ArchiveIndex(hashAlgorithm, ArchiveIndex.Layout.BLOCKS, blocks.getBlockSize(), blocks.getBlockOffsets(), located);
+
+        return new ArchiveIndex(hashAlgorithm, ArchiveIndex.Layout.STREAM, 0, null, located);
+    }
 }
\ No newline at end of file
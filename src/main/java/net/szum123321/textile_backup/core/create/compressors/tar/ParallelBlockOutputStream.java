@@ -0,0 +1,172 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors.tar;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the stream into fixed size blocks, compresses each one of them independently on the executor and writes them out in order.
+ * Works with any format which allows for concatenating its frames.
+ * <br><br>
+ * At most 2 * threads blocks are kept in memory at once.
+ * <br><br>
+ * Where each block starts is recorded, so that decompression can later start at any of them. See {@link net.szum123321.textile_backup.core.ArchiveIndex}
+ */
+public abstract class ParallelBlockOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final ExecutorService executorService;
+    private final int blockSize;
+    private final int maxInFlight;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final List<Long> blockOffsets = new ArrayList<>();
+    private long written = 0;
+
+    private byte[] buffer;
+    private int position = 0;
+    private boolean headerWritten = false, closed = false;
+
+    protected ParallelBlockOutputStream(OutputStream out, ExecutorService executorService, int threads, int blockSize) {
+        this.out = out;
+        this.executorService = executorService;
+        this.blockSize = blockSize;
+        this.maxInFlight = Math.max(2, threads * 2);
+        this.buffer = new byte[blockSize];
+    }
+
+    /**
+     * Called concurrently. Must return a self-contained block of the format
+     */
+    protected abstract byte[] compressBlock(byte[] data, int len) throws IOException;
+
+    protected void writeHeader(OutputStream out) throws IOException { }
+
+    protected void writeTrailer(OutputStream out) throws IOException { }
+
+    public int getBlockSize() { return blockSize; }
+
+    /**
+     * Positions in the output at which the blocks start. Only complete once the stream has been closed
+     */
+    public long[] getBlockOffsets() {
+        return blockOffsets.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[position++] = (byte) b;
+        if(position == blockSize) submit();
+    }
+
+    @Override
+    public void write(byte @NotNull [] b, int off, int len) throws IOException {
+        while(len > 0) {
+            int n = Math.min(len, blockSize - position);
+            System.arraycopy(b, off, buffer, position, n);
+
+            position += n;
+            off += n;
+            len -= n;
+
+            if(position == blockSize) submit();
+        }
+    }
+
+    /**
+     * Doesn't cut the current block short, that would only hurt the compression ratio. Only writes out the blocks which are already done
+     */
+    @Override
+    public void flush() throws IOException {
+        while(!pending.isEmpty() && pending.peekFirst().isDone()) writeNext();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        try {
+            if(position > 0) submit();
+            while(!pending.isEmpty()) writeNext();
+
+            if(!headerWritten) writeHeader();
+
+            writeTrailer(out);
+        } finally {
+            pending.forEach(f -> f.cancel(true));
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        final byte[] data = buffer;
+        final int len = position;
+
+        pending.addLast(executorService.submit(() -> compressBlock(data, len)));
+
+        buffer = new byte[blockSize];
+        position = 0;
+
+        while(pending.size() >= maxInFlight) writeNext();
+    }
+
+    private void writeNext() throws IOException {
+        byte[] block;
+
+        try {
+            block = pending.peekFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block to be compressed!");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException ioe) throw ioe;
+            throw new IOException("An exception occurred while compressing a block!", e.getCause());
+        }
+
+        pending.removeFirst();
+
+        if(!headerWritten) writeHeader();
+
+        blockOffsets.add(written);
+        out.write(block);
+        written += block.length;
+    }
+
+    private void writeHeader() throws IOException {
+        //Has to be counted, the first block starts right after it
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeHeader(header);
+
+        header.writeTo(out);
+        written += header.size();
+        headerWritten = true;
+    }
+}
@@ -19,13 +19,33 @@
 package net.szum123321.textile_backup.core.create.compressors.tar;
 
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
-import org.anarres.parallelgzip.ParallelGZIPOutputStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
+/**
+ * Writes the tar as a series of independent gzip members, each compressed on its own thread.
+ * Any gzip decoder reads concatenated members as a single stream.
+ * <br><br>
+ * Every member also carries its own compressed size in an extra field (like BGZF does), so on restore
+ * the members can be cut apart without inflating them and decompressed in parallel.
+ * See: <a href="https://www.rfc-editor.org/rfc/rfc1952">RFC 1952</a>
+ */
 public class ParallelGzipCompressor extends AbstractTarArchiver {
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	public static final byte SUBFIELD_ID1 = 'T', SUBFIELD_ID2 = 'B';
+	//Member header: magic, CM, FLG, MTIME, XFL, OS, XLEN, then the subfield: SI1, SI2, LEN and the member size
+	public static final int HEADER_SIZE = 10 + 2 + 4 + Integer.BYTES;
+	private static final byte FLG_FEXTRA = 0x04;
+	private static final byte OS_UNKNOWN = (byte) 255;
+
 	private ExecutorService executorService;
 
 	public static ParallelGzipCompressor getInstance() {
@@ -36,12 +56,61 @@ public class ParallelGzipCompressor extends AbstractTarArchiver {
 	protected OutputStream getCompressorOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
 		executorService = Executors.newFixedThreadPool(coreLimit);
 
-		return new ParallelGZIPOutputStream(stream, executorService);
+		return new GzipBlockOutputStream(stream, executorService, coreLimit);
 	}
 
 	@Override
 	protected void close() {
-		//it seems like ParallelGZIPOutputStream doesn't shut down its ExecutorService, so to not leave garbage I shut it down
-		executorService.shutdown();
+		if(executorService != null) executorService.shutdown();
+	}
+
+	private static class GzipBlockOutputStream extends ParallelBlockOutputStream {
+		GzipBlockOutputStream(OutputStream out, ExecutorService executorService, int threads) {
+			super(out, executorService, threads, BLOCK_SIZE);
+		}
+
+		//Without any members the output wouldn't be gzip at all
+		@Override
+		protected void writeTrailer(OutputStream out) throws IOException {
+			if(getBlockOffsets().length == 0) out.write(compressBlock(new byte[0], 0));
+		}
+
+		@Override
+		protected byte[] compressBlock(byte[] data, int len) {
+			//A new one per block, so its native memory gets freed right away. It's nothing next to compressing 1 MiB
+			Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+			//Incompressible data grows by 5 bytes per 16 KiB stored block
+			byte[] out = new byte[HEADER_SIZE + len + (len >> 12) + 64 + 2 * Integer.BYTES];
+			int n = HEADER_SIZE;
+
+			try {
+				def.setInput(data, 0, len);
+				def.finish();
+
+				while(!def.finished()) {
+					if(n == out.length) out = Arrays.copyOf(out, out.length * 2);
+					n += def.deflate(out, n, out.length - n);
+				}
+			} finally {
+				def.end();
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, len);
+
+			int size = n + 2 * Integer.BYTES;
+			if(out.length < size) out = Arrays.copyOf(out, size);
+
+			ByteBuffer member = ByteBuffer.wrap(out).order(ByteOrder.LITTLE_ENDIAN);
+			member.put((byte) 0x1F).put((byte) 0x8B).put((byte) Deflater.DEFLATED).put(FLG_FEXTRA)
+					.putInt(0).put((byte) 0).put(OS_UNKNOWN)
+					.putShort((short) (4 + Integer.BYTES))
+					.put(SUBFIELD_ID1).put(SUBFIELD_ID2).putShort((short) Integer.BYTES).putInt(size);
+
+			member.putInt(n, (int) crc.getValue()).putInt(n + Integer.BYTES, len);
+
+			return out.length == size ? out : Arrays.copyOf(out, size);
+		}
 	}
 }
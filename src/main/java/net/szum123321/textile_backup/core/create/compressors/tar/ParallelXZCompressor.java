@@ -0,0 +1,80 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors.tar;
+
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import org.tukaani.xz.*;
+
+import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes the tar as a series of independent xz streams, each compressed on its own thread.
+ * xz allows for concatenating streams, so the result is still a regular .tar.xz
+ * <br><br>
+ * LZMA2 encoder needs about 10 times its dictionary size of memory, so the dictionary is capped at the block size.
+ */
+public class ParallelXZCompressor extends AbstractTarArchiver {
+	private final static ConfigHelper config = ConfigHelper.INSTANCE;
+	private static final int BLOCK_SIZE = 8 * 1024 * 1024;
+
+	private ExecutorService executorService;
+
+	public static ParallelXZCompressor getInstance() {
+		return new ParallelXZCompressor();
+	}
+
+	@Override
+	protected OutputStream getCompressorOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
+		LZMA2Options options = new LZMA2Options(config.get().compression);
+		options.setDictSize(Math.min(options.getDictSize(), BLOCK_SIZE));
+
+		executorService = Executors.newFixedThreadPool(coreLimit);
+
+		return new XZBlockOutputStream(stream, executorService, coreLimit, options);
+	}
+
+	@Override
+	protected void close() {
+		if(executorService != null) executorService.shutdown();
+	}
+
+	private static class XZBlockOutputStream extends ParallelBlockOutputStream {
+		private final LZMA2Options options;
+
+		XZBlockOutputStream(OutputStream out, ExecutorService executorService, int threads, LZMA2Options options) {
+			super(out, executorService, threads, BLOCK_SIZE);
+			this.options = options;
+		}
+
+		@Override
+		protected byte[] compressBlock(byte[] data, int len) throws IOException {
+			ByteArrayOutputStream bo = new ByteArrayOutputStream(len / 2);
+
+			//Saves us from allocating the encoder's buffers for every block
+			try (XZOutputStream xz = new XZOutputStream(bo, options, XZ.CHECK_CRC64, BasicArrayCache.getInstance())) {
+				xz.write(data, 0, len);
+			}
+
+			return bo.toByteArray();
+		}
+	}
+}
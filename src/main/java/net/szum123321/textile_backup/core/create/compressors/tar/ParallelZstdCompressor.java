@@ -0,0 +1,72 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors.tar;
+
+import io.airlift.compress.zstd.ZstdCompressor;
+import net.szum123321.textile_backup.core.create.ExecutableBackup;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes the tar as a series of independent zstd frames, each compressed on its own thread.
+ * Any zstd decoder handles concatenated frames just fine.
+ */
+public class ParallelZstdCompressor extends AbstractTarArchiver {
+	private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+	private ExecutorService executorService;
+
+	public static ParallelZstdCompressor getInstance() {
+		return new ParallelZstdCompressor();
+	}
+
+	@Override
+	protected OutputStream getCompressorOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
+		executorService = Executors.newFixedThreadPool(coreLimit);
+
+		return new ZstdBlockOutputStream(stream, executorService, coreLimit);
+	}
+
+	@Override
+	protected void close() {
+		if(executorService != null) executorService.shutdown();
+	}
+
+	private static class ZstdBlockOutputStream extends ParallelBlockOutputStream {
+		//ZstdCompressor keeps its working tables around, so it's worth reusing
+		private static final ThreadLocal<ZstdCompressor> compressor = ThreadLocal.withInitial(ZstdCompressor::new);
+
+		ZstdBlockOutputStream(OutputStream out, ExecutorService executorService, int threads) {
+			super(out, executorService, threads, BLOCK_SIZE);
+		}
+
+		@Override
+		protected byte[] compressBlock(byte[] data, int len) {
+			ZstdCompressor zstd = compressor.get();
+			byte[] out = new byte[zstd.maxCompressedLength(len)];
+
+			int n = zstd.compress(data, 0, len, out, 0, out.length);
+
+			return Arrays.copyOf(out, n);
+		}
+	}
+}
@@ -18,6 +18,8 @@
 
 package net.szum123321.textile_backup.core.digest;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
@@ -31,6 +33,8 @@ import java.util.Arrays;
 public class BalticHash implements Hash {
     //SeaHash IV
     protected final static long[] IV = { 0x16f11fe89b0d677cL, 0xb480a793d8e6c86cL, 0x6fe2e5aaf078ebc9L, 0x14f994a4c5259381L };
+    //Little endian long view over a byte array, compiles down to plain loads
+    private final static VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
     private final long[] state = Arrays.copyOf(IV, IV.length);
     protected final int buffer_limit = state.length * Long.BYTES;
     protected final byte[] _byte_buffer = new byte[(state.length + 1) * Long.BYTES];
@@ -51,16 +55,31 @@ public class BalticHash implements Hash {
     }
 
     public void update(byte[] data, int off, int len) {
-        int pos = 0;
-        while(pos < len) {
-            int n = Math.min(len - pos, buffer_limit - buffer.position());
-            System.arraycopy(data, off + pos, _byte_buffer, buffer.position(), n);
-            pos += n;
+        hashed_data_length += len;
+
+        //Top up whatever is left in the buffer first
+        if(buffer.position() != 0) {
+            int n = Math.min(len, buffer_limit - buffer.position());
+            System.arraycopy(data, off, _byte_buffer, buffer.position(), n);
             buffer.position(buffer.position() + n);
-            if(buffer.position() >= buffer_limit) round();
+            off += n;
+            len -= n;
+
+            if(buffer.position() < buffer_limit) return;
+            round();
         }
 
-        hashed_data_length += len;
+        //Whole lanes are read straight from the caller's array, no copying
+        while(len >= buffer_limit) {
+            mix(data, off);
+            off += buffer_limit;
+            len -= buffer_limit;
+        }
+
+        if(len > 0) {
+            System.arraycopy(data, off, _byte_buffer, 0, len);
+            buffer.position(len);
+        }
     }
 
     public long getValue() {
@@ -82,8 +101,7 @@ public class BalticHash implements Hash {
         int p = buffer.position();
         buffer.rewind();
 
-        for(int i = 0; i < 4; i++) state[i] ^= buffer.getLong();
-        for(int i = 0; i < 4; i++) state[i] = xorshift64star(state[i]);
+        mix(_byte_buffer, 0);
 
         if(p > buffer_limit) {
             System.arraycopy(_byte_buffer, buffer_limit, _byte_buffer, 0, buffer.limit() - p);
@@ -91,6 +109,13 @@ public class BalticHash implements Hash {
         } else buffer.rewind();
     }
 
+    private void mix(byte[] data, int off) {
+        state[0] = xorshift64star(state[0] ^ (long) LONG_VIEW.get(data, off));
+        state[1] = xorshift64star(state[1] ^ (long) LONG_VIEW.get(data, off + Long.BYTES));
+        state[2] = xorshift64star(state[2] ^ (long) LONG_VIEW.get(data, off + 2 * Long.BYTES));
+        state[3] = xorshift64star(state[3] ^ (long) LONG_VIEW.get(data, off + 3 * Long.BYTES));
+    }
+
     long xorshift64star(long s) {
         s ^= (s >> 12);
         s ^= (s << 25);
@@ -0,0 +1,56 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.digest;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32C;
+
+/**
+ * The JVM turns CRC32C into a handful of SSE4.2/ARMv8 crc instructions, so it's about as cheap as a hash gets.
+ * Only 32 bits wide though, which is enough to catch damaged files, but not much more.
+ */
+public class CRC32CHash implements Hash {
+    private final static VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final CRC32C crc = new CRC32C();
+    private final byte[] scratch = new byte[Long.BYTES];
+
+    @Override
+    public void update(int b) {
+        crc.update(b);
+    }
+
+    @Override
+    public void update(long b) {
+        LONG_VIEW.set(scratch, 0, b);
+        crc.update(scratch, 0, Long.BYTES);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        crc.update(b, off, len);
+    }
+
+    @Override
+    public long getValue() {
+        return crc.getValue();
+    }
+}
@@ -18,56 +18,104 @@
 
 package net.szum123321.textile_backup.core.digest;
 
-import net.szum123321.textile_backup.Globals;
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.core.CompressionStatus;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * What this class does is it collects the hashed files and combines them into a single number,
  * thus we can verify file tree integrity
+ * <br><br>
+ * With ParallelZip every compressor thread reports here as it closes a file, so there are no locks. The tree hash is
+ * only an XOR and a couple of sums, which can be kept in striped cells (same as LongAdder) and merged in getValue.
  */
 public class FileTreeHashBuilder {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
-    private final Object lock = new Object();
-    private long hash = 0, filesProcessed = 0, filesTotalSize = 0;
+    private final LongAccumulator hash = new LongAccumulator((a, b) -> a ^ b, 0);
+    private final LongAdder filesProcessed = new LongAdder(), filesTotalSize = new LongAdder();
 
-    private final CountDownLatch latch;
+    private final long filesToProcess;
+    //Thread waiting in getValue for the last of the files
+    private volatile Thread waiter = null;
 
-    public FileTreeHashBuilder(int filesToProcess) {
-        latch = new CountDownLatch(filesToProcess);
+    private final HashAlgorithm algorithm;
+    //Hashes of the individual files. Only collected when asked for, as these are needed by the incremental backups
+    private final Map<Path, Long> fileHashes;
+
+    public FileTreeHashBuilder(int filesToProcess, HashAlgorithm algorithm) {
+        this(filesToProcess, algorithm, false);
+    }
+
+    public FileTreeHashBuilder(int filesToProcess, HashAlgorithm algorithm, boolean collectFileHashes) {
+        this.filesToProcess = filesToProcess;
+        this.algorithm = algorithm;
+        fileHashes = collectFileHashes ? new ConcurrentHashMap<>(filesToProcess) : null;
     }
 
+    public HashAlgorithm getAlgorithm() { return algorithm; }
+
+    //Hash for a single file, all of them have to use the same algorithm as the tree
+    public Hash newHash() { return algorithm.create(); }
+
     public void update(Path path, long newHash, long bytes) throws IOException {
         if(path.getFileName().toString().equals(CompressionStatus.DATA_FILENAME)) return;
 
-        latch.countDown();
+        if(fileHashes != null) fileHashes.put(path, newHash);
 
-        synchronized (lock) {
-            this.hash ^= newHash;
-            filesTotalSize += bytes;
-            filesProcessed++;
-        }
+        hash.accumulate(newHash);
+        filesTotalSize.add(bytes);
+        //Has to come last, once getValue sees the count it reads the rest
+        filesProcessed.increment();
+
+        //Only the last file wakes the waiter up. If two finish at once, both might, which is fine
+        Thread w = waiter;
+        if(w != null && filesProcessed.sum() >= filesToProcess) LockSupport.unpark(w);
     }
 
-    public int getRemaining() { return (int) latch.getCount(); }
+    public Optional<Long> getFileHash(Path path) {
+        return fileHashes == null ? Optional.empty() : Optional.ofNullable(fileHashes.get(path));
+    }
+
+    public int getRemaining() { return (int) Math.max(filesToProcess - filesProcessed.sum(), 0); }
 
+    /**
+     * @param lock wait for all the files to come in. Only a single thread may wait at a time
+     */
     public long getValue(boolean lock) throws InterruptedException {
-        long leftover = latch.getCount();
-        if(lock) latch.await();
-        else if(leftover != 0) log.warn("Finishing with {} files unprocessed!", leftover);
+        if(lock) await();
+        else if(getRemaining() != 0) log.warn("Finishing with {} files unprocessed!", getRemaining());
 
-        var hasher = Globals.CHECKSUM_SUPPLIER.get();
+        var hasher = algorithm.create();
 
-        log.debug("Closing: files: {}, bytes {}, raw hash {}", filesProcessed, filesTotalSize, hash);
-        hasher.update(hash);
-        hasher.update(filesProcessed);
-        hasher.update(filesTotalSize);
+        long files = filesProcessed.sum(), size = filesTotalSize.sum(), raw = hash.get();
+        log.debug("Closing: files: {}, bytes {}, raw hash {}", files, size, raw);
+
+        hasher.update(raw);
+        hasher.update(files);
+        hasher.update(size);
 
         return hasher.getValue();
     }
+
+    private void await() throws InterruptedException {
+        waiter = Thread.currentThread();
+
+        try {
+            while(filesProcessed.sum() < filesToProcess) {
+                LockSupport.park(this);
+                if(Thread.interrupted()) throw new InterruptedException();
+            }
+        } finally {
+            waiter = null;
+        }
+    }
 }
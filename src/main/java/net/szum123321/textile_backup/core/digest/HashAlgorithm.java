@@ -0,0 +1,50 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.digest;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Hashes the tree hash can be built with. The one used is recorded in the backup, so that restore can use the same one.
+ * Backups made before this was selectable are always BALTIC.
+ */
+public enum HashAlgorithm {
+    BALTIC(BalticHash::new),
+    CRC32C(CRC32CHash::new),
+    XXH3(XXH3Hash::new);
+
+    public static final HashAlgorithm DEFAULT = BALTIC;
+
+    private final Supplier<Hash> supplier;
+
+    HashAlgorithm(Supplier<Hash> supplier) {
+        this.supplier = supplier;
+    }
+
+    public Hash create() { return supplier.get(); }
+
+    public static Optional<HashAlgorithm> byName(String name) {
+        for(HashAlgorithm algorithm: values()) {
+            if(algorithm.name().equals(name)) return Optional.of(algorithm);
+        }
+
+        return Optional.empty();
+    }
+}
@@ -18,7 +18,6 @@
 
 package net.szum123321.textile_backup.core.digest;
 
-import net.szum123321.textile_backup.Globals;
 import net.szum123321.textile_backup.core.DataLeftException;
 import net.szum123321.textile_backup.core.create.BrokenFileHandler;
 import org.jetbrains.annotations.NotNull;
@@ -37,7 +36,7 @@ import java.nio.file.Path;
  */
 public class HashingInputStream extends FilterInputStream {
     private final Path path;
-    private final Hash hash = Globals.CHECKSUM_SUPPLIER.get();
+    private final Hash hash;
     private final FileTreeHashBuilder hashBuilder;
     private final BrokenFileHandler brokenFileHandler;
 
@@ -48,6 +47,7 @@ public class HashingInputStream extends FilterInputStream {
         this.path = path;
         this.hashBuilder = hashBuilder;
         this.brokenFileHandler = brokenFileHandler;
+        this.hash = hashBuilder.newHash();
     }
 
     @Override
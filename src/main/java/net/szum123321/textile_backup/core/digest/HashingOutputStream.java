@@ -18,7 +18,6 @@
 
 package net.szum123321.textile_backup.core.digest;
 
-import net.szum123321.textile_backup.Globals;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.FilterOutputStream;
@@ -29,7 +28,7 @@ import java.nio.file.Path;
 
 public class HashingOutputStream extends FilterOutputStream {
     private final Path path;
-    private final Hash hash = Globals.CHECKSUM_SUPPLIER.get();
+    private final Hash hash;
     private final FileTreeHashBuilder hashBuilder;
 
     private long bytesWritten = 0;
@@ -38,6 +37,7 @@ public class HashingOutputStream extends FilterOutputStream {
         super(out);
         this.path = path;
         this.hashBuilder = hashBuilder;
+        this.hash = hashBuilder.newHash();
     }
 
     @Override
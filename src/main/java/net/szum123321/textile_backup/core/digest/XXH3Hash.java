@@ -0,0 +1,288 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.digest;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.HexFormat;
+
+/**
+ * Streaming XXH3-64 with the default secret and seed 0, same output as XXH3_64bits from the reference library.
+ * See: <a href="https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md">xxHash specification</a>
+ * <br><br>
+ * Up to 240 bytes are just collected and hashed at the end. Longer inputs go through the 64 byte stripes as they arrive,
+ * but the last stripe is always held back, as the final one gets special treatment.
+ */
+public class XXH3Hash implements Hash {
+    private final static VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private final static VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final static byte[] SECRET = HexFormat.of().parseHex(
+            "b8fe6c3923a44bbe7c01812cf721ad1cded46de9839097db7240a4a4b7b3671f" +
+            "cb79e64eccc0e578825ad07dccff7221b8084674f743248ee03590e6813a264c" +
+            "3c2852bb91c300cb88d0658b1b532ea371644897a20df94e3819ef46a9deacd8" +
+            "a8fa763fe39c343ff9dcbbc7c70b4f1d8a51e04bcdb45931c89f7ec9d9787364" +
+            "eac5ac8334d3ebc3c581a0fffa1363eb170ddd51b7f0da49d316552629d4689e" +
+            "2b16be587d47a1fc8ff8b8d17ad031ce45cb3a8f95160428afd7fbcabb4b407e"
+    );
+
+    private final static long PRIME32_1 = 0x9E3779B1L, PRIME32_2 = 0x85EBCA77L, PRIME32_3 = 0xC2B2AE3DL;
+    private final static long PRIME64_1 = 0x9E3779B185EBCA87L, PRIME64_2 = 0xC2B2AE3D27D4EB4FL, PRIME64_3 = 0x165667B19E3779F9L,
+            PRIME64_4 = 0x85EBCA77C2B2AE63L, PRIME64_5 = 0x27D4EB2F165667C5L;
+    private final static long PRIME_MX1 = 0x165667919E3779F9L, PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    private final static int STRIPE_LEN = 64;
+    private final static int STRIPES_PER_BLOCK = (SECRET.length - STRIPE_LEN) / 8;
+    private final static int MIDSIZE_MAX = 240;
+    private final static int BUFFER_SIZE = 256;
+
+    private final long[] acc = { PRIME32_3, PRIME64_1, PRIME64_2, PRIME64_3, PRIME64_4, PRIME32_2, PRIME64_5, PRIME32_1 };
+    private int stripesInBlock = 0;
+
+    //Once some stripes have been consumed, the end of the buffer still holds the last one of them
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int buffered = 0;
+    private long length = 0;
+
+    private final byte[] scratch = new byte[Long.BYTES];
+
+    @Override
+    public void update(int b) {
+        scratch[0] = (byte) b;
+        update(scratch, 0, 1);
+    }
+
+    @Override
+    public void update(long b) {
+        LONG_VIEW.set(scratch, 0, b);
+        update(scratch, 0, Long.BYTES);
+    }
+
+    @Override
+    public void update(byte[] data, int off, int len) {
+        length += len;
+
+        if(buffered + len <= BUFFER_SIZE) {
+            System.arraycopy(data, off, buffer, buffered, len);
+            buffered += len;
+            return;
+        }
+
+        //From here on at least one more byte follows everything we consume
+        if(buffered > 0) {
+            int n = BUFFER_SIZE - buffered;
+            System.arraycopy(data, off, buffer, buffered, n);
+            off += n;
+            len -= n;
+
+            stripesInBlock = consumeStripes(acc, stripesInBlock, buffer, 0, BUFFER_SIZE / STRIPE_LEN);
+            buffered = 0;
+        }
+
+        if(len > BUFFER_SIZE) {
+            int stripes = (len - 1) / STRIPE_LEN;
+            stripesInBlock = consumeStripes(acc, stripesInBlock, data, off, stripes);
+            off += stripes * STRIPE_LEN;
+            len -= stripes * STRIPE_LEN;
+
+            System.arraycopy(data, off - STRIPE_LEN, buffer, BUFFER_SIZE - STRIPE_LEN, STRIPE_LEN);
+        }
+
+        System.arraycopy(data, off, buffer, 0, len);
+        buffered = len;
+    }
+
+    @Override
+    public long getValue() {
+        if(length <= 16) return hashShort(buffer, buffered);
+        if(length <= 128) return hashMedium(buffer, buffered);
+        if(length <= MIDSIZE_MAX) return hash240(buffer, buffered);
+
+        long[] acc = this.acc.clone();
+        byte[] lastStripe;
+        int lastOffset;
+
+        if(buffered >= STRIPE_LEN) {
+            consumeStripes(acc, stripesInBlock, buffer, 0, (buffered - 1) / STRIPE_LEN);
+            lastStripe = buffer;
+            lastOffset = buffered - STRIPE_LEN;
+        } else {
+            //Part of the last stripe has already been consumed
+            lastStripe = new byte[STRIPE_LEN];
+            int catchup = STRIPE_LEN - buffered;
+            System.arraycopy(buffer, BUFFER_SIZE - catchup, lastStripe, 0, catchup);
+            System.arraycopy(buffer, 0, lastStripe, catchup, buffered);
+            lastOffset = 0;
+        }
+
+        accumulate(acc, lastStripe, lastOffset, SECRET.length - STRIPE_LEN - 7);
+
+        long result = length * PRIME64_1;
+        for(int i = 0; i < 4; i++)
+            result += mul128Fold64(acc[2 * i] ^ secret64(11 + 16 * i), acc[2 * i + 1] ^ secret64(11 + 16 * i + 8));
+
+        return avalanche(result);
+    }
+
+    private static int consumeStripes(long[] acc, int stripesInBlock, byte[] data, int off, int stripes) {
+        //A block at a time, same as the reference
+        while(stripes > 0) {
+            int n = Math.min(stripes, STRIPES_PER_BLOCK - stripesInBlock);
+
+            for(int i = 0; i < n; i++) accumulate(acc, data, off + i * STRIPE_LEN, (stripesInBlock + i) * 8);
+
+            off += n * STRIPE_LEN;
+            stripes -= n;
+            stripesInBlock += n;
+
+            if(stripesInBlock == STRIPES_PER_BLOCK) {
+                scramble(acc);
+                stripesInBlock = 0;
+            }
+        }
+
+        return stripesInBlock;
+    }
+
+    private static void accumulate(long[] acc, byte[] data, int off, int secretOffset) {
+        //Each lane also takes in its neighbour's input, so the lanes go in pairs
+        accumulatePair(acc, 0, data, off, secretOffset);
+        accumulatePair(acc, 2, data, off, secretOffset);
+        accumulatePair(acc, 4, data, off, secretOffset);
+        accumulatePair(acc, 6, data, off, secretOffset);
+    }
+
+    private static void accumulatePair(long[] acc, int lane, byte[] data, int off, int secretOffset) {
+        long value0 = read64(data, off + 8 * lane), value1 = read64(data, off + 8 * lane + 8);
+        long key0 = value0 ^ secret64(secretOffset + 8 * lane), key1 = value1 ^ secret64(secretOffset + 8 * lane + 8);
+        acc[lane] += value1 + (key0 & 0xFFFFFFFFL) * (key0 >>> 32);
+        acc[lane + 1] += value0 + (key1 & 0xFFFFFFFFL) * (key1 >>> 32);
+    }
+
+    private static void scramble(long[] acc) {
+        acc[0] = scrambleLane(acc[0], 0);
+        acc[1] = scrambleLane(acc[1], 1);
+        acc[2] = scrambleLane(acc[2], 2);
+        acc[3] = scrambleLane(acc[3], 3);
+        acc[4] = scrambleLane(acc[4], 4);
+        acc[5] = scrambleLane(acc[5], 5);
+        acc[6] = scrambleLane(acc[6], 6);
+        acc[7] = scrambleLane(acc[7], 7);
+    }
+
+    private static long scrambleLane(long a, int lane) {
+        a ^= a >>> 47;
+        a ^= secret64(SECRET.length - STRIPE_LEN + 8 * lane);
+        return a * PRIME32_1;
+    }
+
+    private static long hashShort(byte[] data, int len) {
+        if(len > 8) {
+            long lo = read64(data, 0) ^ (secret64(24) ^ secret64(32));
+            long hi = read64(data, len - 8) ^ (secret64(40) ^ secret64(48));
+            return avalanche(len + Long.reverseBytes(lo) + hi + mul128Fold64(lo, hi));
+        }
+
+        if(len >= 4) {
+            long input = (read32(data, len - 4) & 0xFFFFFFFFL) + ((read32(data, 0) & 0xFFFFFFFFL) << 32);
+            return rrmxmx(input ^ (secret64(8) ^ secret64(16)), len);
+        }
+
+        if(len > 0) {
+            int combined = ((data[0] & 0xFF) << 16) | ((data[len >> 1] & 0xFF) << 24) | (data[len - 1] & 0xFF) | (len << 8);
+            long bitflip = (read32(SECRET, 0) ^ read32(SECRET, 4)) & 0xFFFFFFFFL;
+            return xxh64Avalanche((combined & 0xFFFFFFFFL) ^ bitflip);
+        }
+
+        return xxh64Avalanche(secret64(56) ^ secret64(64));
+    }
+
+    private static long hashMedium(byte[] data, int len) {
+        long acc = len * PRIME64_1;
+
+        if(len > 32) {
+            if(len > 64) {
+                if(len > 96) {
+                    acc += mix16(data, 48, 96);
+                    acc += mix16(data, len - 64, 112);
+                }
+                acc += mix16(data, 32, 64);
+                acc += mix16(data, len - 48, 80);
+            }
+            acc += mix16(data, 16, 32);
+            acc += mix16(data, len - 32, 48);
+        }
+        acc += mix16(data, 0, 0);
+        acc += mix16(data, len - 16, 16);
+
+        return avalanche(acc);
+    }
+
+    private static long hash240(byte[] data, int len) {
+        long acc = len * PRIME64_1;
+        int rounds = len / 16;
+
+        for(int i = 0; i < 8; i++) acc += mix16(data, 16 * i, 16 * i);
+        acc = avalanche(acc);
+
+        for(int i = 8; i < rounds; i++) acc += mix16(data, 16 * i, 16 * (i - 8) + 3);
+        acc += mix16(data, len - 16, 136 - 17);
+
+        return avalanche(acc);
+    }
+
+    private static long mix16(byte[] data, int off, int secretOffset) {
+        return mul128Fold64(read64(data, off) ^ secret64(secretOffset), read64(data, off + 8) ^ secret64(secretOffset + 8));
+    }
+
+    private static long mul128Fold64(long a, long b) {
+        //Math.unsignedMultiplyHigh is only there since Java 18
+        long high = Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+        return (a * b) ^ high;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 37;
+        h *= PRIME_MX1;
+        return h ^ (h >>> 32);
+    }
+
+    private static long rrmxmx(long h, long len) {
+        h ^= Long.rotateLeft(h, 49) ^ Long.rotateLeft(h, 24);
+        h *= PRIME_MX2;
+        h ^= (h >>> 35) + len;
+        h *= PRIME_MX2;
+        return h ^ (h >>> 28);
+    }
+
+    private static long xxh64Avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        return h ^ (h >>> 32);
+    }
+
+    private static long read64(byte[] data, int off) { return (long) LONG_VIEW.get(data, off); }
+
+    private static int read32(byte[] data, int off) { return (int) INT_VIEW.get(data, off); }
+
+    private static long secret64(int off) { return read64(SECRET, off); }
+}
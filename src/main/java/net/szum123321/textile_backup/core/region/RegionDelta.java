@@ -0,0 +1,153 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.region;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Stores only the chunks of a region file which have changed since the previous backup.
+ * <br><br>
+ * Layout: magic, version, length of the new file, its whole header, hashes of all of its slots, and then the changed slots
+ * themselves. Unchanged chunks are copied from the previous version of the file during restore. Sectors not referenced
+ * by any chunk are not carried over, they come back as zeros.
+ */
+public class RegionDelta {
+    public static final String SUFFIX = ".delta";
+
+    private static final int MAGIC = 0x54585244; //TXRD
+    private static final int VERSION = 1;
+
+    /**
+     * @param baseHashes slot hashes of the file as it was in the previous backup
+     * @param hashes current slot hashes of the file
+     * @return serialized delta, or empty if it isn't worth it compared to just storing the whole file
+     */
+    public static Optional<byte[]> create(Path file, long[] baseHashes, long[] hashes) throws IOException {
+        if(baseHashes.length != RegionFile.SLOTS) return Optional.empty();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            byte[] header = RegionFile.readHeader(channel);
+
+            ByteArrayOutputStream bo = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bo);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.write(header);
+            for(long h: hashes) out.writeLong(h);
+
+            for(int slot = 0; slot < RegionFile.SLOTS; slot++) {
+                if(hashes[slot] == baseHashes[slot]) continue;
+
+                ByteBuffer data = RegionFile.readSlot(channel, header, slot, length);
+                if(data == null) continue;
+
+                out.writeShort(slot);
+                out.writeInt(data.limit());
+                out.write(data.array(), 0, data.limit());
+
+                //No point in going on
+                if(bo.size() > length / 2) return Optional.empty();
+            }
+
+            out.writeShort(-1);
+            out.flush();
+
+            return Optional.of(bo.toByteArray());
+        }
+    }
+
+    /**
+     * Rebuilds the region file from its previous version and the delta, and checks that every chunk came out right.
+     * The delta file is removed afterwards.
+     */
+    public static void apply(Path delta, Path file) throws IOException {
+        if(Files.notExists(file)) throw new FileNotFoundException("Region delta " + delta.getFileName() + " has no base file!");
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(delta)));
+             FileChannel base = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if(in.readInt() != MAGIC) throw new IOException("Not a region delta: " + delta);
+
+            int version = in.readInt();
+            if(version != VERSION) throw new IOException("Unsupported region delta version: " + version);
+
+            long length = in.readLong();
+            byte[] header = in.readNBytes(RegionFile.HEADER_SIZE);
+            if(header.length != RegionFile.HEADER_SIZE) throw new EOFException();
+
+            long[] hashes = new long[RegionFile.SLOTS];
+            for(int i = 0; i < RegionFile.SLOTS; i++) hashes[i] = in.readLong();
+
+            boolean[] written = new boolean[RegionFile.SLOTS];
+
+            writeFully(out, ByteBuffer.wrap(header), 0);
+
+            int slot;
+            while((slot = in.readShort()) >= 0) {
+                byte[] data = in.readNBytes(in.readInt());
+                writeFully(out, ByteBuffer.wrap(data), RegionFile.sectorOffset(header, slot) * (long)RegionFile.SECTOR_SIZE);
+                written[slot] = true;
+            }
+
+            //Everything else comes from the previous version of the file, where the chunk might sit at a different offset
+            long baseLength = base.size();
+            byte[] baseHeader = RegionFile.readHeader(base);
+            long[] baseHashes = RegionFile.hashSlots(base, baseHeader, baseLength);
+
+            for(slot = 0; slot < RegionFile.SLOTS; slot++) {
+                if(written[slot] || hashes[slot] == RegionFile.EMPTY_SLOT) continue;
+
+                if(baseHashes[slot] != hashes[slot]) throw new IOException("Chunk " + slot + " of " + file.getFileName() + " is missing from the base file!");
+
+                ByteBuffer data = RegionFile.readSlot(base, baseHeader, slot, baseLength);
+                if(data != null) writeFully(out, data, RegionFile.sectorOffset(header, slot) * (long)RegionFile.SECTOR_SIZE);
+            }
+
+            if(out.size() < length) out.write(ByteBuffer.allocate(1), length - 1);
+            else out.truncate(length);
+
+            if(!Arrays.equals(hashes, RegionFile.hashSlots(out, header, length)))
+                throw new IOException("Region file " + file.getFileName() + " doesn't match its checksum after applying the delta!");
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(delta);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) channel.write(buffer, position + buffer.position());
+    }
+}
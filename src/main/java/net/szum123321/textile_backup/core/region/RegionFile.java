@@ -0,0 +1,188 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.region;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.szum123321.textile_backup.core.digest.BalticHash;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Minimal reader for the anvil region format. A region file starts with an 8 KiB header: 1024 chunk locations
+ * (3 byte sector offset + 1 byte sector count) followed by 1024 timestamps. Chunk data lives in 4 KiB sectors after that.
+ * <br><br>
+ * Each of the chunk slots is hashed over its whole sector range, so that we can tell which chunks have changed between backups.
+ * The chunks themselves only have to be read out for restoring into a running world.
+ */
+public class RegionFile {
+    public static final String EXTENSION = ".mca";
+    public static final int SECTOR_SIZE = 4096;
+    public static final int SLOTS = 1024;
+    public static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+
+    //Hash of a slot with no chunk in it
+    public static final long EMPTY_SLOT = 0;
+
+    //Set on the compression type of chunks which didn't fit into the region, and are kept in c.[x].[z].mcc files instead
+    private static final int EXTERNAL_FLAG = 0x80;
+
+    public static boolean isRegionFile(String name) {
+        return name.endsWith(EXTENSION);
+    }
+
+    public interface ChunkConsumer {
+        /**
+         * @param x, z chunk coordinates in the world
+         * @param nbt decompressed chunk data
+         */
+        void accept(int x, int z, InputStream nbt) throws IOException;
+    }
+
+    /**
+     * Reads out all the chunks of the region
+     */
+    public static void readChunks(Path file, ChunkConsumer consumer) throws IOException {
+        int[] coordinates = getCoordinates(file);
+        int regionX = coordinates[0], regionZ = coordinates[1];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            byte[] header = readHeader(channel);
+            long length = channel.size();
+
+            for(int slot = 0; slot < SLOTS; slot++) {
+                ByteBuffer data = readSlot(channel, header, slot, length);
+                if(data == null || data.remaining() < 5) continue;
+
+                int x = regionX * 32 + (slot & 31), z = regionZ * 32 + (slot >> 5);
+                int size = data.getInt() - 1;
+                int type = data.get() & 0xFF;
+
+                InputStream raw;
+                if((type & EXTERNAL_FLAG) != 0) {
+                    raw = new BufferedInputStream(Files.newInputStream(file.resolveSibling("c." + x + "." + z + ".mcc")));
+                } else {
+                    if(size < 0 || size > data.remaining()) throw new IOException("Chunk [" + x + ", " + z + "] is cut short!");
+                    raw = new ByteArrayInputStream(data.array(), data.position(), size);
+                }
+
+                try (InputStream in = decompress(type & ~EXTERNAL_FLAG, raw)) {
+                    consumer.accept(x, z, in);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return x and z of the region, taken from the file name: r.[x].[z].mca
+     */
+    public static int[] getCoordinates(Path file) throws IOException {
+        String[] name = file.getFileName().toString().split("\\.");
+
+        try {
+            return new int[] { Integer.parseInt(name[1]), Integer.parseInt(name[2]) };
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Not a region file name: " + file.getFileName());
+        }
+    }
+
+    private static InputStream decompress(int type, InputStream in) throws IOException {
+        return switch (type) {
+            case 1 -> new GZIPInputStream(in);
+            case 2 -> new InflaterInputStream(in);
+            case 3 -> in;
+            //Comes with the game since 1.20.5
+            case 4 -> new LZ4BlockInputStream(in);
+            default -> {
+                in.close();
+                throw new IOException("Unknown chunk compression type: " + type);
+            }
+        };
+    }
+
+    public static long[] hashSlots(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return hashSlots(channel, readHeader(channel), channel.size());
+        }
+    }
+
+    static long[] hashSlots(FileChannel channel, byte[] header, long length) throws IOException {
+        long[] hashes = new long[SLOTS];
+
+        for(int slot = 0; slot < SLOTS; slot++) {
+            ByteBuffer data = readSlot(channel, header, slot, length);
+            if(data == null) continue;
+
+            BalticHash hash = new BalticHash();
+            hash.update(data.array(), 0, data.limit());
+            //So that moving a chunk to another slot doesn't go unnoticed
+            hash.update((long) slot);
+            hashes[slot] = hash.getValue();
+        }
+
+        return hashes;
+    }
+
+    static byte[] readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        if(channel.size() < HEADER_SIZE) throw new IOException("Region file is too short to contain a header!");
+
+        readFully(channel, header, 0);
+
+        return header.array();
+    }
+
+    /**
+     * @return the sector range of the chunk, clipped to the end of the file. null if the slot is empty
+     */
+    static ByteBuffer readSlot(FileChannel channel, byte[] header, int slot, long length) throws IOException {
+        long start = sectorOffset(header, slot) * (long)SECTOR_SIZE;
+        long end = Math.min(start + sectorCount(header, slot) * (long)SECTOR_SIZE, length);
+
+        if(start < HEADER_SIZE || end <= start) return null;
+
+        ByteBuffer buffer = ByteBuffer.allocate((int)(end - start));
+        readFully(channel, buffer, start);
+
+        return buffer.flip();
+    }
+
+    static int sectorOffset(byte[] header, int slot) {
+        int i = slot * 4;
+        return ((header[i] & 0xFF) << 16) | ((header[i + 1] & 0xFF) << 8) | (header[i + 2] & 0xFF);
+    }
+
+    static int sectorCount(byte[] header, int slot) {
+        return header[slot * 4 + 3] & 0xFF;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if(n < 0) throw new EOFException();
+        }
+    }
+}
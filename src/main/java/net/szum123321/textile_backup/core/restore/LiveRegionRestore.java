@@ -0,0 +1,154 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.restore;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtSizeTracker;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ServerChunkManager;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.ChunkPos;
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.region.RegionFile;
+import net.szum123321.textile_backup.mixin.MinecraftServerSessionAccessor;
+import net.szum123321.textile_backup.mixin.ServerChunkLoadingManagerAccessor;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+/**
+ * Puts the chunks of restored region files back into a running world. They're handed over to the game's own chunk storage,
+ * which also serves chunks still waiting to be written, so the region files it keeps open don't get in the way.
+ * <br><br>
+ * The game may not hold any of the chunks of a region in any state, not even half loaded or waiting to be saved,
+ * otherwise it would write its own copy over the restored one. If it does, all the pending saves and unloads are flushed first.
+ * Each region is checked and written on the server thread, so nothing can get loaded in between. Regions still in use are skipped.
+ * <br><br>
+ * Only the terrain is restored, entities and points of interest are kept in files of their own.
+ * Chunks generated after the backup was made are left as they are.
+ */
+public class LiveRegionRestore {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    private static final String REGION_DIRECTORY = "region";
+
+    public static boolean isTerrain(String name) {
+        Path parent = Path.of(name).getParent();
+        return RegionFile.isRegionFile(name) && parent != null && parent.getFileName().toString().equals(REGION_DIRECTORY);
+    }
+
+    /**
+     * @param restored directory laid out the same way the world is, holding the region files to restore
+     */
+    public static void restore(MinecraftServer server, Path restored, ServerCommandSource source) throws IOException {
+        Path worldRoot = Utilities.getWorldFolder(server);
+        Map<Path, ServerWorld> dimensions = new HashMap<>();
+
+        for(ServerWorld world: server.getWorlds()) {
+            Path directory = ((MinecraftServerSessionAccessor) server).getSession().getWorldDirectory(world.getRegistryKey());
+            dimensions.put(restored.resolve(worldRoot.relativize(directory).toString()).resolve(REGION_DIRECTORY), world);
+        }
+
+        List<Path> regions;
+        try (Stream<Path> stream = Files.walk(restored)) {
+            regions = stream.filter(Files::isRegularFile).filter(f -> isTerrain(restored.relativize(f).toString())).sorted().toList();
+        }
+
+        if(regions.isEmpty()) {
+            log.sendInfoAL(source, "No region files matched!");
+            return;
+        }
+
+        int done = 0;
+
+        for(Path region: regions) {
+            String name = restored.relativize(region).toString();
+            ServerWorld world = dimensions.get(region.getParent());
+
+            if(world == null) {
+                log.sendErrorAL(source, "{} doesn't belong to any of the loaded dimensions!", name);
+                continue;
+            }
+
+            //Decoded up front, so that the server thread only has to hand them over
+            Map<ChunkPos, NbtCompound> chunks = new HashMap<>();
+            RegionFile.readChunks(region, (x, z, in) ->
+                    chunks.put(new ChunkPos(x, z), NbtIo.readCompound(new DataInputStream(in), NbtSizeTracker.ofUnlimitedBytes()))
+            );
+
+            int[] coordinates = RegionFile.getCoordinates(region);
+            Optional<List<CompletableFuture<?>>> writes = server.submit(() -> write(world, coordinates[0], coordinates[1], chunks)).join();
+
+            if(writes.isEmpty()) {
+                log.sendErrorAL(source, "Some chunks of {} are still in use, skipping it. Move away from it and try again.", name);
+                continue;
+            }
+
+            try {
+                CompletableFuture.allOf(writes.get().toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException e) {
+                throw new IOException("An exception occurred while writing the chunks of: " + name, e.getCause());
+            }
+
+            log.sendInfoAL(source, "Restored {} chunks of {}.", chunks.size(), name);
+            done++;
+        }
+
+        log.sendInfoAL(source, "Restored {} of {} regions.", done, regions.size());
+    }
+
+    //Has to run on the server thread. Empty if any of the chunks is still held by the game
+    private static Optional<List<CompletableFuture<?>>> write(ServerWorld world, int regionX, int regionZ, Map<ChunkPos, NbtCompound> chunks) {
+        ServerChunkManager chunkManager = world.getChunkManager();
+
+        if(isHeld(chunkManager, regionX, regionZ)) {
+            //Same as /save-all flush. Saves everything and lets go of the chunks nobody needs anymore
+            chunkManager.save(true);
+            if(isHeld(chunkManager, regionX, regionZ)) return Optional.empty();
+        }
+
+        List<CompletableFuture<?>> writes = new ArrayList<>(chunks.size());
+        chunks.forEach((pos, nbt) -> writes.add(chunkManager.chunkLoadingManager.setNbt(pos, nbt)));
+
+        return Optional.of(writes);
+    }
+
+    private static boolean isHeld(ServerChunkManager chunkManager, int regionX, int regionZ) {
+        ServerChunkLoadingManagerAccessor loadingManager = (ServerChunkLoadingManagerAccessor) chunkManager.chunkLoadingManager;
+
+        for(int x = 0; x < 32; x++) {
+            for(int z = 0; z < 32; z++) {
+                long pos = ChunkPos.toLong(regionX * 32 + x, regionZ * 32 + z);
+                if(loadingManager.getCurrentChunkHolders().containsKey(pos) || loadingManager.getChunksToUnload().containsKey(pos))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -22,36 +22,66 @@ import net.szum123321.textile_backup.Globals;
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.config.ConfigHelper;
-import net.szum123321.textile_backup.config.ConfigPOJO;
 import net.szum123321.textile_backup.core.ActionInitiator;
+import net.szum123321.textile_backup.core.ArchiveIndex;
+import net.szum123321.textile_backup.core.BackupManifest;
+import net.szum123321.textile_backup.core.BlacklistMatcher;
 import net.szum123321.textile_backup.core.CompressionStatus;
+import net.szum123321.textile_backup.core.RestoreableFile;
 import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import net.szum123321.textile_backup.core.region.RegionDelta;
+import net.szum123321.textile_backup.core.restore.decompressors.CASDecompressor;
 import net.szum123321.textile_backup.core.restore.decompressors.GenericTarDecompressor;
 import net.szum123321.textile_backup.core.restore.decompressors.ZipDecompressor;
 import net.szum123321.textile_backup.mixin.MinecraftServerSessionAccessor;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.FutureTask;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * This class restores a file provided by RestoreContext.
+ * <br><br>
+ * If only some of the files were asked for, only those get unpacked (see {@link ArchiveIndex}), verified one by one
+ * and put in place of the current ones. The rest of the world is left alone.
+ * <br><br>
+ * Region files can also be restored without shutting the server down, see {@link LiveRegionRestore}
  */
 public class RestoreBackupRunnable implements Runnable {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
     private final static ConfigHelper config = ConfigHelper.INSTANCE;
 
     private final RestoreContext ctx;
+    @Nullable
+    private final BlacklistMatcher only;
+    @Nullable
+    private final Predicate<String> filter;
+    //Damaged files of all the unpacked backups, with the paths they had when the backup was made
+    private final List<Path> brokenFiles = new ArrayList<>();
 
     public RestoreBackupRunnable(RestoreContext ctx) {
         this.ctx = ctx;
+        this.only = ctx.only() != null ? new BlacklistMatcher(List.of(ctx.only())) : null;
+        this.filter = only != null ? this::isSelected : null;
     }
 
     @Override
     public void run() {
+        if(ctx.live()) {
+            restoreLive();
+            return;
+        }
+
         Globals.INSTANCE.globalShutdownBackupFlag.set(false);
 
         log.info("Shutting down server...");
@@ -62,8 +92,8 @@ public class RestoreBackupRunnable implements Runnable {
                 tmp;
 
         try {
-            tmp = Files.createTempDirectory(
-                    ctx.server().getRunDirectory(),
+            tmp = WorldSwap.createStagingDirectory(
+                    worldFile,
                     ctx.restoreableFile().getFile().getFileName().toString()
             );
         } catch (IOException e) {
@@ -93,34 +123,13 @@ public class RestoreBackupRunnable implements Runnable {
         new Thread(waitForShutdown, "Server shutdown wait thread").start();
 
         try {
-            log.info("Starting decompression...");
-
-            long hash;
-
-            if (ctx.restoreableFile().getArchiveFormat() == ConfigPOJO.ArchiveFormat.ZIP)
-                hash = ZipDecompressor.decompress(ctx.restoreableFile().getFile(), tmp);
-            else
-                hash = GenericTarDecompressor.decompress(ctx.restoreableFile().getFile(), tmp);
+            Optional<String> errorMsg = unpackChain(tmp);
 
             log.info("Waiting for server to fully terminate...");
 
             //locks until the backup is finished and the server is dead
             waitForShutdown.get();
 
-            Optional<String> errorMsg;
-
-            if(Files.notExists(CompressionStatus.resolveStatusFilename(tmp))) {
-                errorMsg = Optional.of("Status file not found!");
-            } else {
-                CompressionStatus status = CompressionStatus.readFromFile(tmp);
-
-                log.info("Status: {}", status);
-
-                Files.delete(tmp.resolve(CompressionStatus.DATA_FILENAME));
-
-                errorMsg = status.validate(hash, ctx);
-            }
-
             if(errorMsg.isEmpty() || !config.get().integrityVerificationMode.verify()) {
                 if (errorMsg.isEmpty()) log.info("Backup valid. Restoring");
                 else log.info("Backup is damaged, but verification is disabled [{}]. Restoring", errorMsg.get());
@@ -128,12 +137,24 @@ public class RestoreBackupRunnable implements Runnable {
                 //Disables write lock to override world file
                 ((MinecraftServerSessionAccessor) ctx.server()).getSession().close();
 
-                Utilities.deleteDirectory(worldFile);
-                Files.move(tmp, worldFile);
+                if (only == null) {
+                    WorldSwap.swap(tmp, worldFile);
+                } else {
+                    replaceSelected(tmp, worldFile);
+                }
+
+                //The manifest no longer describes the world, so the next backup has to be a full one
+                BackupManifest.deleteFromDirectory(Utilities.getBackupRootPath(Utilities.getLevelName(ctx.server())));
 
-                if (config.get().deleteOldBackupAfterRestore) {
-                    log.info("Deleting restored backup file");
-                    Files.delete(ctx.restoreableFile().getFile());
+                //The rest of the backup is still needed
+                if (config.get().deleteOldBackupAfterRestore && only == null) {
+                    if(RestoreHelper.hasDependentBackups(ctx.server(), ctx.restoreableFile())) {
+                        log.info("Keeping restored backup file, as there are incremental backups which depend on it");
+                    } else {
+                        log.info("Deleting restored backup file");
+                        Files.delete(ctx.restoreableFile().getFile());
+                        ArchiveIndex.delete(ctx.restoreableFile().getFile());
+                    }
                 }
             } else {
                 log.error(errorMsg.get());
@@ -143,11 +164,7 @@ public class RestoreBackupRunnable implements Runnable {
             log.error("An exception occurred while trying to restore a backup!", e);
         } finally {
             //Regardless of what happened, we should still clean up
-            if(Files.exists(tmp)) {
-                try {
-                    Utilities.deleteDirectory(tmp);
-                } catch (IOException ignored) {}
-            }
+            WorldSwap.deleteStagingDirectory(tmp);
         }
 
         //in case we're playing on client
@@ -155,4 +172,194 @@ public class RestoreBackupRunnable implements Runnable {
 
         log.info("Done!");
     }
+
+    private void restoreLive() {
+        Path tmp;
+
+        try {
+            tmp = WorldSwap.createStagingDirectory(
+                    Utilities.getWorldFolder(ctx.server()),
+                    ctx.restoreableFile().getFile().getFileName().toString()
+            );
+        } catch (IOException e) {
+            log.error("An exception occurred while unpacking backup", e);
+            return;
+        }
+
+        try {
+            Optional<String> errorMsg = unpackChain(tmp);
+
+            if(errorMsg.isPresent() && config.get().integrityVerificationMode.verify()) {
+                log.sendErrorAL(ctx.commandSource(), errorMsg.get());
+                return;
+            }
+
+            errorMsg.ifPresent(msg -> log.warn("Backup is damaged, but verification is disabled [{}]. Restoring", msg));
+
+            LiveRegionRestore.restore(ctx.server(), tmp, ctx.commandSource());
+        } catch (Exception e) {
+            log.error("An exception occurred while trying to restore a backup!", e);
+            log.sendError(ctx.commandSource(), "An exception occurred while trying to restore a backup!");
+        } finally {
+            WorldSwap.deleteStagingDirectory(tmp);
+        }
+    }
+
+    /**
+     * Unpacks the backup, together with the ones it was made on top of, into the given directory
+     * @return error message, if any of them turned out to be damaged
+     */
+    private Optional<String> unpackChain(Path target) throws IOException, ClassNotFoundException {
+        List<RestoreableFile> chain = RestoreHelper.getRestoreChain(ctx.server(), ctx.restoreableFile());
+
+        Optional<String> errorMsg = chain.isEmpty() ? Optional.of("Incremental backup chain is broken!") : Optional.empty();
+
+        log.info("Starting decompression...");
+
+        String previous = null;
+
+        for(RestoreableFile file: chain) {
+            if(chain.size() > 1) log.info("Unpacking: {}", file.getFile().getFileName());
+
+            Optional<String> msg = unpack(file, target, previous);
+            if(errorMsg.isEmpty()) errorMsg = msg;
+            if(errorMsg.isPresent() && config.get().integrityVerificationMode.verify()) break;
+
+            previous = file.getFile().getFileName().toString();
+        }
+
+        return errorMsg;
+    }
+
+    /**
+     * Unpacks a single backup on top of whatever is already in the target directory, and verifies it.
+     * @param expectedBase name of the previously unpacked backup, null if this one is supposed to be a full backup
+     */
+    private Optional<String> unpack(RestoreableFile file, Path target, @Nullable String expectedBase) throws IOException, ClassNotFoundException {
+        long hash;
+
+        switch (file.getArchiveFormat()) {
+            case ZIP -> hash = ZipDecompressor.decompress(file.getFile(), target, Utilities.getCoreCount(), filter);
+            case CAS -> hash = CASDecompressor.decompress(file.getFile(), target, filter);
+            default -> hash = GenericTarDecompressor.decompress(file.getFile(), target, Utilities.getCoreCount(), filter);
+        }
+
+        if(Files.notExists(CompressionStatus.resolveStatusFilename(target))) return Optional.of("Status file not found!");
+
+        CompressionStatus status = CompressionStatus.readFromFile(target);
+
+        log.info("Status: {}", status);
+
+        Files.delete(target.resolve(CompressionStatus.DATA_FILENAME));
+
+        for(String name: status.brokenFiles().keySet()) {
+            //A damaged delta means its region file is damaged as well
+            if(name.endsWith(RegionDelta.SUFFIX)) name = name.substring(0, name.length() - RegionDelta.SUFFIX.length());
+            brokenFiles.add(Path.of(name));
+        }
+
+        if(!Objects.equals(status.baseBackup(), expectedBase))
+            return Optional.of("Incremental backup chain is broken!\n  " + file.getFile().getFileName() +
+                    " was made on top of: " + status.baseBackup() + ", got: " + expectedBase);
+
+        for(String name: status.getDeletedFiles()) Files.deleteIfExists(Utilities.resolveEntry(target, name));
+
+        var result = filter == null ? status.validate(hash, ctx) : validateSelected(file, status, target);
+        //Region deltas should only be applied once we know they've arrived intact
+        if(result.isPresent() && config.get().integrityVerificationMode.verify()) return result;
+
+        /*
+            With verification turned off we carry on anyway, but the regions still have to be put back together.
+            Leaving the deltas as they are would restore stale regions, so if that can't be done the whole restore is aborted
+        */
+        for(String name: status.getRegionDeltas()) {
+            if(filter != null && !filter.test(name)) continue;
+
+            Path region = Utilities.resolveEntry(target, name);
+            try {
+                RegionDelta.apply(region.resolveSibling(region.getFileName() + RegionDelta.SUFFIX), region);
+            } catch (IOException e) {
+                throw new IOException("Couldn't reassemble region file: " + name, e);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The tree hash covers the whole backup, so with only some of the files unpacked they're checked against the index instead
+     */
+    private Optional<String> validateSelected(RestoreableFile file, CompressionStatus status, Path target) throws IOException {
+        List<String> damaged = status.brokenFiles().keySet().stream().filter(this::isSelectedAbsolute).toList();
+        if(!damaged.isEmpty()) return Optional.of("Damaged files present! " + damaged);
+
+        Optional<ArchiveIndex> index = ArchiveIndex.read(file.getFile());
+
+        if(index.isEmpty()) {
+            log.warn("{} has no index, the restored files can't be verified!", file.getFile().getFileName());
+            return Optional.empty();
+        }
+
+        return index.get().verify(target, filter);
+    }
+
+    private boolean isSelected(String name) {
+        if(name.equals(CompressionStatus.DATA_FILENAME)) return true;
+
+        //Region deltas go together with their region file
+        if(name.endsWith(RegionDelta.SUFFIX)) name = name.substring(0, name.length() - RegionDelta.SUFFIX.length());
+
+        //Only the terrain can be put into a running world
+        if(ctx.live() && !LiveRegionRestore.isTerrain(name)) return false;
+
+        return only.matches(Path.of(name));
+    }
+
+    /**
+     * Broken files are recorded with the path they had at the time, somewhere inside the world or its snapshot.
+     * Which part of it is the name within the world is unknown, so every tail of it is tried
+     */
+    private boolean isSelectedAbsolute(String brokenFile) {
+        Path path = Path.of(brokenFile);
+
+        for(int i = 0; i < path.getNameCount(); i++) {
+            if(filter.test(path.subpath(i, path.getNameCount()).toString())) return true;
+        }
+
+        return false;
+    }
+
+    private boolean isBroken(Path name) {
+        return brokenFiles.stream().anyMatch(f -> f.endsWith(name));
+    }
+
+    /**
+     * Selected files which didn't exist at the time of the backup are removed, the rest get replaced with the restored ones.
+     * Files which are missing only because they were damaged in the backup are kept
+     */
+    private void replaceSelected(Path restored, Path world) throws IOException {
+        List<Path> stale, files;
+
+        try (Stream<Path> stream = Files.walk(world)) {
+            stale = stream.filter(Files::isRegularFile)
+                    .filter(f -> only.matches(world.relativize(f)))
+                    .filter(f -> Files.notExists(restored.resolve(world.relativize(f).toString())))
+                    .filter(f -> !isBroken(world.relativize(f)))
+                    .toList();
+        }
+
+        try (Stream<Path> stream = Files.walk(restored)) {
+            files = stream.filter(Files::isRegularFile).toList();
+        }
+
+        for(Path file: stale) Files.delete(file);
+
+        for(Path file: files) {
+            Path destination = world.resolve(restored.relativize(file).toString());
+            Files.createDirectories(destination.getParent());
+            Files.move(file, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        log.info("Restored {} files, removed {} which weren't there at the time of the backup.", files.size(), stale.size());
+    }
 }
\ No newline at end of file
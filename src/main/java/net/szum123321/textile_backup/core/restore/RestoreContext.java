@@ -23,18 +23,25 @@ import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.command.ServerCommandSource;
 import net.szum123321.textile_backup.core.ActionInitiator;
 import net.szum123321.textile_backup.core.RestoreableFile;
+import org.jetbrains.annotations.Nullable;
 
-import javax.annotation.Nullable;
-
+/**
+ * @param only pattern of the files to be restored, in the same format as the file blacklist. Everything gets restored if null
+ * @param live whether the selected region files should be put into the running world, see {@link LiveRegionRestore}
+ */
 public record RestoreContext(RestoreableFile restoreableFile,
                              MinecraftServer server,
                              @Nullable String comment,
                              ActionInitiator initiator,
-                             ServerCommandSource commandSource) {
+                             ServerCommandSource commandSource,
+                             @Nullable String only,
+                             boolean live) {
     public static final class Builder {
         private RestoreableFile file;
         private MinecraftServer server;
         private String comment;
+        private String only;
+        private boolean live = false;
         private ServerCommandSource serverCommandSource;
 
         private Builder() {
@@ -59,6 +66,16 @@ public record RestoreContext(RestoreableFile restoreableFile,
             return this;
         }
 
+        public Builder setOnly(@Nullable String only) {
+            this.only = only;
+            return this;
+        }
+
+        public Builder live() {
+            this.live = true;
+            return this;
+        }
+
         public Builder setCommandSource(ServerCommandSource commandSource) {
             this.serverCommandSource = commandSource;
             return this;
@@ -69,7 +86,7 @@ public record RestoreContext(RestoreableFile restoreableFile,
 
             ActionInitiator initiator = serverCommandSource.getEntity() instanceof PlayerEntity ? ActionInitiator.Player : ActionInitiator.ServerConsole;
 
-            return new RestoreContext(file, server, comment, initiator, serverCommandSource);
+            return new RestoreContext(file, server, comment, initiator, serverCommandSource, only, live);
         }
     }
 }
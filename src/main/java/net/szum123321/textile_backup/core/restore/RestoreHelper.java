@@ -69,7 +69,9 @@ public class RestoreHelper {
 
         Utilities.notifyPlayers(
                 ctx.server(),
-                "Warning! The server is going to shut down in " + config.get().restoreDelay + " seconds!"
+                ctx.live() ?
+                        "Warning! Parts of the world are going to be restored in " + config.get().restoreDelay + " seconds!" :
+                        "Warning! The server is going to shut down in " + config.get().restoreDelay + " seconds!"
         );
 
         return new AwaitThread(
@@ -78,6 +80,38 @@ public class RestoreHelper {
         );
     }
 
+    /**
+     * Incremental backups only contain the files which have changed, so to restore one we have to unpack all the backups
+     * starting from the last full one. Returns an empty list if the chain is broken.
+     */
+    public static List<RestoreableFile> getRestoreChain(MinecraftServer server, RestoreableFile file) {
+        var available = getAvailableBackups(server);
+
+        int i = available.indexOf(file);
+        if(i == -1) return List.of();
+
+        LinkedList<RestoreableFile> chain = new LinkedList<>();
+
+        for(var it = available.listIterator(i + 1); it.hasPrevious(); ) {
+            var f = it.previous();
+            chain.addFirst(f);
+            if(!f.isIncremental()) return chain;
+        }
+
+        log.error("Couldn't find the full backup {} was made on top of!", file.getFile().getFileName());
+
+        return List.of();
+    }
+
+    //Backups made on top of the given one would be rendered useless, were it to be deleted
+    public static boolean hasDependentBackups(MinecraftServer server, RestoreableFile file) {
+        var available = getAvailableBackups(server);
+
+        int i = available.indexOf(file);
+
+        return i != -1 && i + 1 < available.size() && available.get(i + 1).isIncremental();
+    }
+
     public static LinkedList<RestoreableFile> getAvailableBackups(MinecraftServer server) {
         Path root = Utilities.getBackupRootPath(Utilities.getLevelName(server));
 
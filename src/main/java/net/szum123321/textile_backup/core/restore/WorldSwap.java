@@ -0,0 +1,134 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.restore;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.ParallelDeleter;
+import net.szum123321.textile_backup.core.Utilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Puts the restored world in place with two renames, instead of deleting the current one file by file while the server is down.
+ * The restore is unpacked into a staging directory in .textile_restore next to the world, and the old world is moved in there as well.
+ * Being in the same directory as the world, both renames are always within a single filesystem.
+ * <br><br>
+ * The world is resolved to its real path first, so that a symlinked world gets its target swapped, and not just the link.
+ * <br><br>
+ * Old worlds, together with staging directories left over by a crash, are deleted in the background once a server has started up again.
+ */
+public class WorldSwap {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    public static final String DIRECTORY = ".textile_restore";
+    private static final String OLD_WORLD_PREFIX = "old_";
+
+    //Staging directories of the restores which are still running, these mustn't be cleaned up
+    private static final Set<Path> active = ConcurrentHashMap.newKeySet();
+
+    public static Path createStagingDirectory(Path world, String name) throws IOException {
+        Path staging = Files.createTempDirectory(Files.createDirectories(getDirectory(world)), name);
+        active.add(staging);
+        return staging;
+    }
+
+    /**
+     * Deletes the staging directory, if it's still there
+     */
+    public static void deleteStagingDirectory(Path staging) {
+        try {
+            if(Files.exists(staging)) ParallelDeleter.delete(staging, Utilities.getCoreCount());
+        } catch (IOException e) {
+            log.error("An exception occurred while deleting: {}", staging, e);
+        } finally {
+            active.remove(staging);
+        }
+    }
+
+    public static void swap(Path staging, Path world) throws IOException {
+        Path real = world.toRealPath();
+        Path old = getDirectory(real).resolve(OLD_WORLD_PREFIX + real.getFileName() + "_" + System.currentTimeMillis());
+
+        Files.move(real, old, StandardCopyOption.ATOMIC_MOVE);
+
+        try {
+            Files.move(staging, real, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //Better to be left with the old world than with none at all
+            Files.move(old, real, StandardCopyOption.ATOMIC_MOVE);
+            throw e;
+        }
+
+        active.remove(staging);
+    }
+
+    /**
+     * Deletes the worlds replaced by previous restores, and the staging directories of restores which didn't finish, on a thread of its own
+     */
+    public static void cleanup(Path world) {
+        Path directory;
+        try {
+            directory = getDirectory(world);
+        } catch (IOException e) {
+            log.error("An exception occurred while looking for old worlds!", e);
+            return;
+        }
+
+        if(Files.notExists(directory)) return;
+
+        List<Path> leftovers;
+        try (Stream<Path> stream = Files.list(directory)) {
+            leftovers = stream.filter(f -> !active.contains(f)).toList();
+        } catch (IOException e) {
+            log.error("An exception occurred while listing old worlds!", e);
+            return;
+        }
+
+        if(leftovers.isEmpty()) return;
+
+        Thread thread = new Thread(() -> {
+            for(Path leftover: leftovers) {
+                try {
+                    ParallelDeleter.delete(leftover, Utilities.getCoreCount());
+
+                    if(leftover.getFileName().toString().startsWith(OLD_WORLD_PREFIX))
+                        log.info("Deleted the world replaced by a restore: {}", leftover.getFileName());
+                    else
+                        log.info("Deleted the leftovers of an unfinished restore: {}", leftover.getFileName());
+                } catch (IOException e) {
+                    log.error("An exception occurred while deleting: {}", leftover, e);
+                }
+            }
+        }, "Textile Backup old world cleanup");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static Path getDirectory(Path world) throws IOException {
+        return world.toRealPath().getParent().resolve(DIRECTORY);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.restore.decompressors;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.ChunkStore;
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashingOutputStream;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Predicate;
+
+public class CASDecompressor {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+
+    public static long decompress(Path input, Path target) throws IOException {
+        return decompress(input, target, null);
+    }
+
+    /**
+     * @param filter entries to be unpacked, all of them if null
+     */
+    public static long decompress(Path input, Path target, @Nullable Predicate<String> filter) throws IOException {
+        Instant start = Instant.now();
+
+        FileTreeHashBuilder hashBuilder = new FileTreeHashBuilder(0, ChunkStore.readIndexHashAlgorithm(input));
+        ChunkStore store = new ChunkStore(input.getParent());
+
+        ChunkStore.readIndex(input, entry -> {
+            if(filter != null && !filter.test(entry.name())) return;
+
+            Path file = Utilities.resolveEntry(target, entry.name());
+
+            Files.createDirectories(file.getParent());
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(file));
+                 HashingOutputStream out = new HashingOutputStream(outputStream, file, hashBuilder)) {
+                for(ChunkStore.Key key: entry.chunks()) store.copyTo(key, out);
+            }
+        });
+
+        log.info("Decompression took: {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
+
+        try {
+            return hashBuilder.getValue(false);
+        } catch (InterruptedException ignored) {
+            return 0;
+        }
+    }
+}
@@ -20,56 +20,112 @@ package net.szum123321.textile_backup.core.restore.decompressors;
 
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.ArchiveIndex;
+import net.szum123321.textile_backup.core.create.compressors.tar.AbstractTarArchiver;
 import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
 import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.digest.HashingOutputStream;
+import io.airlift.compress.zstd.ZstdInputStream;
+import org.at4j.comp.bzip2.BZip2InputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
 import org.apache.commons.compress.utils.IOUtils;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
 
+/**
+ * With more than one thread available the decompression and tar parsing stay on the calling thread,
+ * while hashing and writing of the files happens on the remaining ones. See {@link PipelinedFileWriter}
+ * <br><br>
+ * When only some of the files are needed and the {@link ArchiveIndex} says where they are, decompression starts
+ * right at the block holding each one of them.
+ */
 public class GenericTarDecompressor {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
 
     public static long decompress(Path input, Path target) throws IOException {
+        return decompress(input, target, Utilities.getCoreCount());
+    }
+
+    public static long decompress(Path input, Path target, int threads) throws IOException {
+        return decompress(input, target, threads, null);
+    }
+
+    /**
+     * @param filter entries to be unpacked, all of them if null. The tree hash can only be checked when everything gets unpacked
+     */
+    public static long decompress(Path input, Path target, int threads, @Nullable Predicate<String> filter) throws IOException {
         Instant start = Instant.now();
-        FileTreeHashBuilder treeBuilder = new FileTreeHashBuilder(0);
+
+        if(filter != null) {
+            Optional<ArchiveIndex> index = ArchiveIndex.read(input).filter(ArchiveIndex::isSeekable);
+
+            if(index.isPresent()) {
+                unpackEntries(input, target, index.get(), filter);
+                log.info("Decompression took {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
+                return 0;
+            }
+        }
+        FileTreeHashBuilder treeBuilder = null;
 
         try (InputStream fileInputStream = Files.newInputStream(input);
              InputStream bufferedInputStream = new BufferedInputStream(fileInputStream);
-             InputStream compressorInputStream = getCompressorInputStream(bufferedInputStream);
-             TarArchiveInputStream archiveInputStream = new TarArchiveInputStream(compressorInputStream)) {
+             InputStream compressorInputStream = getCompressorInputStream(bufferedInputStream, threads);
+             TarArchiveInputStream archiveInputStream = new TarArchiveInputStream(compressorInputStream);
+             PipelinedFileWriter writer = threads > 1 ? new PipelinedFileWriter(threads - 1) : null) {
             TarArchiveEntry entry;
 
             while ((entry = archiveInputStream.getNextTarEntry()) != null) {
                 if(!archiveInputStream.canReadEntryData(entry))
                     throw new IOException("Couldn't read archive entry! " + entry.getName());
 
-                Path file = target.resolve(entry.getName());
+                if(treeBuilder == null) treeBuilder = new FileTreeHashBuilder(0, getHashAlgorithm(entry));
+
+                //Skipped entries still have to be decompressed, tar doesn't say where the next one starts
+                if(filter != null && !filter.test(entry.getName())) continue;
+
+                Path file = Utilities.resolveEntry(target, entry.getName());
 
                 if(entry.isDirectory()) {
                     Files.createDirectories(file);
                 } else {
                     Files.createDirectories(file.getParent());
-                    try (OutputStream outputStream = Files.newOutputStream(file);
-                         HashingOutputStream out = new HashingOutputStream(outputStream, file, treeBuilder)) {
-                        IOUtils.copy(archiveInputStream, out);
+
+                    if(writer != null) {
+                        writer.copy(archiveInputStream, file, treeBuilder);
+                    } else {
+                        try (OutputStream outputStream = Files.newOutputStream(file);
+                             HashingOutputStream out = new HashingOutputStream(outputStream, file, treeBuilder)) {
+                            IOUtils.copy(archiveInputStream, out);
+                        }
                     }
                 }
             }
+
+            if(writer != null) writer.finish();
         } catch (CompressorException e) {
             throw new IOException(e);
         }
 
         log.info("Decompression took {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
 
+        if(treeBuilder == null) return 0; //Empty archive
+
         try {
             return treeBuilder.getValue(false);
         } catch (InterruptedException ignored) {
@@ -77,9 +133,94 @@ public class GenericTarDecompressor {
         }
     }
 
-    private static InputStream getCompressorInputStream(InputStream inputStream) throws CompressorException {
+    private static void unpackEntries(Path input, Path target, ArchiveIndex index, Predicate<String> filter) throws IOException {
+        List<Map.Entry<String, ArchiveIndex.Entry>> entries = index.entries().entrySet().stream()
+                .filter(e -> e.getValue().offset() >= 0 && filter.test(e.getKey()))
+                .sorted(Comparator.comparingLong(e -> e.getValue().offset()))
+                .toList();
+
+        byte[] header = new byte[index.headerSize()];
+        try (InputStream in = Files.newInputStream(input)) {
+            IOUtils.readFully(in, header);
+        }
+
+        boolean raw = index.layout() == ArchiveIndex.Layout.RAW;
+        InputStream in = null;
+        long position = 0;
+
+        try {
+            for(var entry: entries) {
+                long offset = entry.getValue().offset();
+
+                //Plain tar can be entered anywhere. Otherwise, carrying on is only cheaper while we're still in the same block
+                if(in == null || offset < position || (raw ? offset > position : index.blockOf(offset) != index.blockOf(position))) {
+                    if(in != null) in.close();
+                    in = open(input, header, index, offset);
+                    position = raw ? offset : index.uncompressedStart(index.blockOf(offset));
+                }
+
+                in.skipNBytes(offset - position);
+
+                Path file = Utilities.resolveEntry(target, entry.getKey());
+                Files.createDirectories(file.getParent());
+
+                long size = entry.getValue().size();
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    if(IOUtils.copyRange(in, size, out) != size) throw new EOFException("Archive ended before: " + entry.getKey());
+                }
+
+                position = offset + size;
+            }
+        } finally {
+            if(in != null) in.close();
+        }
+    }
+
+    //Plain tar gets opened right at the offset, anything else at the start of the block holding it
+    private static InputStream open(Path input, byte[] header, ArchiveIndex index, long offset) throws IOException {
+        InputStream file = Files.newInputStream(input);
+
         try {
-            return new CompressorStreamFactory().createCompressorInputStream(inputStream);
+            //Seeks, doesn't read through
+            if(index.layout() == ArchiveIndex.Layout.RAW) {
+                file.skipNBytes(offset);
+                return new BufferedInputStream(file);
+            }
+
+            file.skipNBytes(index.compressedStart(index.blockOf(offset)));
+
+            InputStream stream = new BufferedInputStream(new SequenceInputStream(new ByteArrayInputStream(header), file));
+            //Blocks are small, reading ahead of them on other threads would only waste time
+            return getCompressorInputStream(stream, 1);
+        } catch (IOException | CompressorException e) {
+            file.close();
+            throw e instanceof IOException ioException ? ioException : new IOException(e);
+        }
+    }
+
+    private static InputStream getCompressorInputStream(InputStream inputStream, int threads) throws CompressorException {
+        //commons-compress would need zstd-jni for this one
+        if(isZstd(inputStream)) return new ZstdInputStream(inputStream);
+
+        //Only our own gzip has the member sizes needed to decode it in parallel. Anything else goes to commons-compress
+        try {
+            if(ParallelGzipInputStream.matches(inputStream)) return new ParallelGzipInputStream(inputStream, threads);
+        } catch (IOException e) {
+            throw new CompressorException("IOException while reading gzip header", e);
+        }
+
+        //commons-compress decodes bzip2 on a single thread
+        if(isBZip2(inputStream)) {
+            try {
+                return new BZip2InputStream(inputStream, threads);
+            } catch (IOException e) {
+                throw new CompressorException("IOException while reading bzip2 header", e);
+            }
+        }
+
+        try {
+            //Parallel compressors write a number of concatenated streams
+            return new CompressorStreamFactory(true).createCompressorInputStream(inputStream);
         } catch (CompressorException e) {
             final byte[] tarHeader = new byte[512];
             int signatureLength;
@@ -98,4 +239,42 @@ public class GenericTarDecompressor {
             throw e;
         }
     }
-}
\ No newline at end of file
+
+    private static boolean isZstd(InputStream inputStream) throws CompressorException {
+        final byte[] signature = new byte[4];
+
+        inputStream.mark(signature.length);
+
+        try {
+            int signatureLength = IOUtils.readFully(inputStream, signature);
+            inputStream.reset();
+
+            return ZstdUtils.matches(signature, signatureLength);
+        } catch (IOException e) {
+            throw new CompressorException("IOException while reading zstd signature", e);
+        }
+    }
+
+    private static boolean isBZip2(InputStream inputStream) throws CompressorException {
+        final byte[] signature = new byte[3];
+
+        inputStream.mark(signature.length);
+
+        try {
+            int signatureLength = IOUtils.readFully(inputStream, signature);
+            inputStream.reset();
+
+            return BZip2CompressorInputStream.matches(signature, signatureLength);
+        } catch (IOException e) {
+            throw new CompressorException("IOException while reading bzip2 signature", e);
+        }
+    }
+
+    //Archives made before the hash was selectable don't have the header
+    private static HashAlgorithm getHashAlgorithm(TarArchiveEntry entry) throws IOException {
+        String name = entry.getExtraPaxHeader(AbstractTarArchiver.HASH_ALGORITHM_PAX_HEADER);
+        if(name == null) return HashAlgorithm.DEFAULT;
+
+        return HashAlgorithm.byName(name).orElseThrow(() -> new IOException("Unknown hash algorithm: " + name));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.restore.decompressors;
+
+import net.szum123321.textile_backup.core.create.compressors.tar.ParallelGzipCompressor;
+import org.apache.commons.compress.utils.IOUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads gzip written by {@link ParallelGzipCompressor}. Each member states its own compressed size, so the members are read
+ * whole and inflated on a thread pool, while this stream hands them out in order.
+ * <br><br>
+ * At most 2 * threads members are kept in memory at once.
+ */
+class ParallelGzipInputStream extends InputStream {
+    private final InputStream in;
+    private final ExecutorService executorService;
+    private final int maxInFlight;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private boolean inputDone = false, closed = false;
+    private byte[] current = new byte[0];
+    private int position = 0;
+
+    ParallelGzipInputStream(InputStream in, int threads) {
+        this.in = in;
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.maxInFlight = Math.max(2, threads * 2);
+    }
+
+    /**
+     * Checks whether the first member carries its size. Stream has to support mark/reset
+     */
+    static boolean matches(InputStream in) throws IOException {
+        byte[] header = new byte[ParallelGzipCompressor.HEADER_SIZE];
+
+        in.mark(header.length);
+        int n = IOUtils.readFully(in, header);
+        in.reset();
+
+        return n == header.length && memberSize(header) > 0;
+    }
+
+    /**
+     * @return size of the whole member, or -1 if the header doesn't hold it
+     */
+    private static int memberSize(byte[] header) {
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+
+        if(buffer.get(0) != 0x1F || buffer.get(1) != (byte) 0x8B || buffer.get(2) != 8) return -1;
+        //FEXTRA has to be set, anything else (name, comment, header crc) has to be missing
+        if(buffer.get(3) != 0x04) return -1;
+        if(buffer.getShort(10) != 4 + Integer.BYTES) return -1;
+        if(buffer.get(12) != ParallelGzipCompressor.SUBFIELD_ID1 || buffer.get(13) != ParallelGzipCompressor.SUBFIELD_ID2) return -1;
+        if(buffer.getShort(14) != Integer.BYTES) return -1;
+
+        int size = buffer.getInt(16);
+        return size >= ParallelGzipCompressor.HEADER_SIZE + 2 * Integer.BYTES ? size : -1;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!fill()) return -1;
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte @NotNull [] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+        if(!fill()) return -1;
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        pending.forEach(f -> f.cancel(true));
+        executorService.shutdownNow();
+        in.close();
+    }
+
+    private boolean fill() throws IOException {
+        if(closed) throw new IOException("Stream closed");
+
+        while(position == current.length) {
+            while(!inputDone && pending.size() < maxInFlight) readMember();
+
+            if(pending.isEmpty()) return false;
+
+            try {
+                current = pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a gzip member to be inflated!");
+            } catch (ExecutionException e) {
+                if(e.getCause() instanceof IOException ioe) throw ioe;
+                throw new IOException("An exception occurred while inflating a gzip member!", e.getCause());
+            }
+
+            position = 0;
+        }
+
+        return true;
+    }
+
+    private void readMember() throws IOException {
+        byte[] header = new byte[ParallelGzipCompressor.HEADER_SIZE];
+        int n = IOUtils.readFully(in, header);
+
+        if(n == 0) {
+            inputDone = true;
+            return;
+        }
+
+        int size = n == header.length ? memberSize(header) : -1;
+        if(size < 0) throw new IOException("Invalid gzip member header! Was this archive made by Textile Backup?");
+
+        byte[] member = new byte[size];
+        System.arraycopy(header, 0, member, 0, header.length);
+
+        if(IOUtils.readFully(in, member, header.length, size - header.length) != size - header.length)
+            throw new EOFException("Unexpected end of gzip stream!");
+
+        pending.addLast(executorService.submit(() -> inflate(member)));
+    }
+
+    private static byte[] inflate(byte[] member) throws IOException {
+        ByteBuffer trailer = ByteBuffer.wrap(member).order(ByteOrder.LITTLE_ENDIAN);
+        int crc = trailer.getInt(member.length - 2 * Integer.BYTES);
+        int size = trailer.getInt(member.length - Integer.BYTES);
+
+        //ISIZE is the size modulo 2^32, but the members are never bigger than a block
+        if(size < 0) throw new IOException("Corrupt gzip member! Invalid size");
+
+        byte[] out = new byte[size];
+        Inflater inflater = new Inflater(true);
+
+        try {
+            inflater.setInput(member, ParallelGzipCompressor.HEADER_SIZE, member.length - ParallelGzipCompressor.HEADER_SIZE - 2 * Integer.BYTES);
+
+            int n = 0;
+            byte[] probe = new byte[1];
+
+            while(!inflater.finished()) {
+                //Once the output is full, only check that nothing more comes out
+                int k = n < out.length ? inflater.inflate(out, n, out.length - n) : inflater.inflate(probe);
+
+                if(n == out.length && k > 0) throw new IOException("Corrupt gzip member! Size doesn't match");
+                if(k == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) throw new IOException("Corrupt gzip member! Data ends too early");
+
+                n += k;
+            }
+
+            if(n != out.length) throw new IOException("Corrupt gzip member! Size doesn't match");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt gzip member!", e);
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 check = new CRC32();
+        check.update(out);
+        if((int) check.getValue() != crc) throw new IOException("Corrupt gzip member! CRC doesn't match");
+
+        return out;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.restore.decompressors;
+
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashingOutputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Takes hashing and writing of the unpacked files off the decompressing thread.
+ * <br><br>
+ * File contents are handed over in pooled buffers, so only a fixed amount of memory is ever in flight,
+ * and the decompressor simply waits whenever the writers fall behind. Each file goes to a single writer, so its chunks stay in order.
+ */
+class PipelinedFileWriter implements Closeable {
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int BUFFERS_PER_WRITER = 8;
+    private final static long POLL_INTERVAL_MILLIS = 100;
+    private final static long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final BlockingQueue<byte[]> buffers;
+    private final List<BlockingQueue<Chunk>> queues = new ArrayList<>();
+    private final List<Future<Void>> writers = new ArrayList<>();
+    private final ExecutorService executorService;
+    private final AtomicReference<IOException> error = new AtomicReference<>();
+
+    PipelinedFileWriter(int threads) {
+        buffers = new ArrayBlockingQueue<>(threads * BUFFERS_PER_WRITER);
+        for(int i = 0; i < threads * BUFFERS_PER_WRITER; i++) buffers.add(new byte[BUFFER_SIZE]);
+
+        executorService = Executors.newFixedThreadPool(threads);
+
+        for(int i = 0; i < threads; i++) {
+            BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+            queues.add(queue);
+            writers.add(executorService.submit(() -> write(queue)));
+        }
+    }
+
+    /**
+     * Reads the whole input and queues it up to be written into the given file. The parent directory has to exist already
+     */
+    void copy(InputStream in, Path file, FileTreeHashBuilder hashBuilder) throws IOException {
+        throwIfFailed();
+
+        BlockingQueue<Chunk> queue = queues.get(0);
+        for(BlockingQueue<Chunk> q: queues) {
+            if(q.size() < queue.size()) queue = q;
+        }
+
+        while(true) {
+            byte[] buffer = takeBuffer();
+
+            int length;
+            try {
+                length = in.readNBytes(buffer, 0, BUFFER_SIZE);
+            } catch (IOException e) {
+                buffers.add(buffer);
+                throw e;
+            }
+
+            boolean last = length < BUFFER_SIZE;
+            queue.add(new Chunk(file, hashBuilder, buffer, length, last));
+
+            if(last) return;
+        }
+    }
+
+    /**
+     * Waits for all queued files to be written
+     */
+    void finish() throws IOException {
+        for(BlockingQueue<Chunk> queue: queues) queue.add(Chunk.END);
+
+        for(Future<Void> writer: writers) {
+            try {
+                writer.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Unpacking got interrupted!");
+            } catch (ExecutionException e) {
+                throw new IOException("An exception occurred while writing the unpacked files!", e.getCause());
+            }
+        }
+
+        throwIfFailed();
+    }
+
+    /**
+     * Only does anything if finish wasn't reached. Writers close the files they had open once interrupted.
+     * Waits for them, as the directory they write to is usually deleted right after
+     */
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+
+        try {
+            if(!executorService.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                throw new IOException("Writers didn't stop in " + CLOSE_TIMEOUT_SECONDS + " seconds!");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writers to stop!");
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException e = error.get();
+        if(e != null) throw new IOException("An exception occurred while writing the unpacked files!", e);
+    }
+
+    //Doesn't wait forever. If a writer has failed, the buffer we're waiting for might never come back
+    private byte[] takeBuffer() throws IOException {
+        try {
+            while(true) {
+                byte[] buffer = buffers.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if(buffer != null) return buffer;
+
+                throwIfFailed();
+
+                for(Future<Void> writer: writers) {
+                    if(writer.isDone()) throw new IOException("A writer thread has stopped unexpectedly!");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Unpacking got interrupted!");
+        }
+    }
+
+    private Void write(BlockingQueue<Chunk> queue) throws InterruptedException {
+        OutputStream out = null;
+
+        try {
+            while(true) {
+                Chunk chunk = queue.take();
+                if(chunk == Chunk.END) return null;
+
+                try {
+                    //After a failure the chunks are only drained, so that the buffers come back to the pool
+                    if(error.get() != null) continue;
+
+                    if(out == null)
+                        out = new HashingOutputStream(Files.newOutputStream(chunk.file()), chunk.file(), chunk.hashBuilder());
+
+                    out.write(chunk.buffer(), 0, chunk.length());
+
+                    if(chunk.last()) {
+                        OutputStream finished = out;
+                        out = null;
+                        finished.close();
+                    }
+                } catch (IOException e) {
+                    error.compareAndSet(null, e);
+                } catch (RuntimeException e) {
+                    //Has to be caught as well, otherwise the rest of this writer's chunks would never give their buffers back
+                    error.compareAndSet(null, new IOException("Unexpected exception while writing: " + chunk.file(), e));
+                } finally {
+                    buffers.add(chunk.buffer());
+                }
+            }
+        } finally {
+            if(out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private record Chunk(Path file, FileTreeHashBuilder hashBuilder, byte[] buffer, int length, boolean last) {
+        static final Chunk END = new Chunk(null, null, null, 0, true);
+    }
+}
@@ -20,45 +20,76 @@ package net.szum123321.textile_backup.core.restore.decompressors;
 
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.CompressionStatus;
 import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
 import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.digest.HashingOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.utils.IOUtils;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
 
+/**
+ * Thanks to the central directory every entry can be read on its own, so the entries are spread over a thread pool.
+ * Directories are all created up front, so the workers only ever write files.
+ */
 public class ZipDecompressor {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
 
     public static long decompress(Path inputFile, Path target) throws IOException {
+        return decompress(inputFile, target, Utilities.getCoreCount());
+    }
+
+    public static long decompress(Path inputFile, Path target, int threads) throws IOException {
+        return decompress(inputFile, target, threads, null);
+    }
+
+    /**
+     * @param filter entries to be unpacked, all of them if null
+     */
+    public static long decompress(Path inputFile, Path target, int threads, @Nullable Predicate<String> filter) throws IOException {
         Instant start = Instant.now();
 
-        FileTreeHashBuilder hashBuilder = new FileTreeHashBuilder(0);
+        FileTreeHashBuilder hashBuilder;
 
         try(ZipFile zipFile = new ZipFile(inputFile.toFile())) {
-            for (Iterator<ZipArchiveEntry> it = zipFile.getEntries().asIterator(); it.hasNext(); ) {
+            hashBuilder = new FileTreeHashBuilder(0, getHashAlgorithm(zipFile));
+
+            List<ZipArchiveEntry> files = new ArrayList<>();
+            Set<Path> directories = new HashSet<>();
+
+            //Physical order keeps the reads mostly sequential
+            for (Iterator<ZipArchiveEntry> it = zipFile.getEntriesInPhysicalOrder().asIterator(); it.hasNext(); ) {
                 ZipArchiveEntry entry = it.next();
-                Path file = target.resolve(entry.getName());
+                if(filter != null && !filter.test(entry.getName())) continue;
+
+                Path file = Utilities.resolveEntry(target, entry.getName());
 
                 if(entry.isDirectory()) {
-                    Files.createDirectories(file);
+                    directories.add(file);
                 } else {
-                    Files.createDirectories(file.getParent());
-                    try (OutputStream outputStream = Files.newOutputStream(file);
-                         HashingOutputStream out = new HashingOutputStream(outputStream, file, hashBuilder);
-                         InputStream in = zipFile.getInputStream(entry)) {
-
-                        IOUtils.copy(in, out);
-                    }
+                    directories.add(file.getParent());
+                    files.add(entry);
                 }
             }
+
+            for(Path directory: directories) Files.createDirectories(directory);
+
+            if(threads <= 1 || files.size() <= 1) {
+                for(ZipArchiveEntry entry: files) unpack(zipFile, entry, target, hashBuilder);
+            } else {
+                unpackParallel(zipFile, files, target, hashBuilder, threads);
+            }
         }
 
         log.info("Decompression took: {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
@@ -69,4 +100,58 @@ public class ZipDecompressor {
             return 0;
         }
     }
+
+    private static void unpackParallel(ZipFile zipFile, List<ZipArchiveEntry> files, Path target,
+                                       FileTreeHashBuilder hashBuilder, int threads) throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+
+        try {
+            List<Future<Void>> tasks = new ArrayList<>(files.size());
+
+            //ZipFile reads the entries with positional reads, so it can be shared between the threads
+            for(ZipArchiveEntry entry: files) {
+                tasks.add(executorService.submit(() -> {
+                    unpack(zipFile, entry, target, hashBuilder);
+                    return null;
+                }));
+            }
+
+            for(Future<Void> task: tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    if(e.getCause() instanceof IOException ioException) throw ioException;
+                    throw new IOException("An exception occurred while unpacking the backup!", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Unpacking got interrupted!");
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static void unpack(ZipFile zipFile, ZipArchiveEntry entry, Path target, FileTreeHashBuilder hashBuilder) throws IOException {
+        Path file = Utilities.resolveEntry(target, entry.getName());
+
+        try (OutputStream outputStream = Files.newOutputStream(file);
+             HashingOutputStream out = new HashingOutputStream(outputStream, file, hashBuilder);
+             InputStream in = zipFile.getInputStream(entry)) {
+
+            IOUtils.copy(in, out);
+        }
+    }
+
+    //Zip has a central directory, so the status file can be read up front
+    private static HashAlgorithm getHashAlgorithm(ZipFile zipFile) throws IOException {
+        ZipArchiveEntry entry = zipFile.getEntry(CompressionStatus.DATA_FILENAME);
+        if(entry == null) return HashAlgorithm.DEFAULT;
+
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return CompressionStatus.read(in).getHashAlgorithm();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
 }
@@ -16,15 +16,21 @@
  * along with this program.  If not, see <https://www.gnu.org/licenses/>.
  */
 
-package net.szum123321.textile_backup.core;
+package net.szum123321.textile_backup.mixin;
 
-import java.io.IOException;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.server.world.ChunkHolder;
+import net.minecraft.server.world.ServerChunkLoadingManager;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
 
-/**
- * Wrapper for specific IOException. Temporary way to get more info about issue #51
- */
-public class NoSpaceLeftOnDeviceException extends IOException {
-    public NoSpaceLeftOnDeviceException(Throwable cause) {
-        super("The underlying filesystem has ran out of available space.\nSee: https://github.com/Szum123321/textile_backup/wiki/ZIP-Problems", cause);
-    }
+@Mixin(ServerChunkLoadingManager.class)
+public interface ServerChunkLoadingManagerAccessor {
+	//Every chunk the game holds in any state, from barely started to fully loaded
+	@Accessor
+	Long2ObjectLinkedOpenHashMap<ChunkHolder> getCurrentChunkHolders();
+
+	//Chunks which have already been dropped, but might still be waiting to be saved
+	@Accessor
+	Long2ObjectLinkedOpenHashMap<ChunkHolder> getChunksToUnload();
 }
@@ -0,0 +1,191 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.test;
+
+import net.minecraft.util.math.random.Random;
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import org.at4j.comp.bzip2.BZip2InputStream;
+import org.at4j.comp.bzip2.BZip2OutputStream;
+import org.at4j.comp.bzip2.BZip2OutputStreamSettings;
+import org.at4j.support.io.ByteArrayBitInput;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+public class BZip2Test {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    final static int[] THREADS = { 1, 4 };
+
+    //Made with bzip2 1.0.8, "bzip2 -1"
+    final static byte[] SYSTEM_EMPTY = HexFormat.of().parseHex("425a683117724538509000000000");
+    final static byte[] SYSTEM_ONE = HexFormat.of().parseHex(
+            "425a6831314159265359774bb01400000000800040200021184682ee48a70a120ee9760280");
+    //runs()
+    final static byte[] SYSTEM_RUNS = HexFormat.of().parseHex(
+            "425a68313141592653591f0b5a980000007ffff8002000100008000400020001000080004000200010000800040002008100" +
+            "18a00040c8a68c3d29a313428d190346991a627ed70a26840a16999746d32a3b3af0fd80cc32ec03688c9777393c5dceef2d" +
+            "82d0924ad41624d4bfe2ee48a70a1203e16b5300");
+    //250000 bytes of "abc", three blocks
+    final static byte[] SYSTEM_ABC = HexFormat.of().parseHex(
+            "425a68313141592653595a0b37e400411701003800200030cc0529a6aa4207552103552103cc50564994d65682cdf9001045" +
+            "c0400e0008000c33014a69aa9081d54840d54840f314159265359bc5e8ebf00209381003800200030cc0529a6a8881c2440d" +
+            "51103c5dc914e142418190fb98");
+
+    public static void run() throws RuntimeException {
+        log.info("Running bzip2 test");
+
+        try {
+            //Streams made by the reference implementation
+            check("system empty", SYSTEM_EMPTY, new byte[0]);
+            check("system 1 byte", SYSTEM_ONE, new byte[]{ 'x' });
+            check("system runs", SYSTEM_RUNS, runs());
+            check("system multi-block", SYSTEM_ABC, abc());
+
+            //Streams made by at4j
+            Random r = Random.create(2137);
+            byte[] random = new byte[350_000];
+            for(int i = 0; i < random.length; i++) random[i] = (byte)r.nextInt();
+
+            byte[] longRun = new byte[300_000];
+            Arrays.fill(longRun, (byte) 'a');
+
+            //Only a few symbols, so short codes and a lot of repeated move-to-front values
+            byte[] fewSymbols = new byte[350_000];
+            for(int i = 0; i < fewSymbols.length; i++) fewSymbols[i] = (byte)(r.nextInt() & 3);
+
+            for(byte[] data: new byte[][]{ new byte[0], { 42 }, runs(), longRun, random, fewSymbols }) {
+                check("at4j " + data.length + " bytes", compress(data), data);
+            }
+
+            //Concatenated streams have to come out as one
+            check("concatenated", concat(SYSTEM_ABC, compress(random), SYSTEM_EMPTY, compress(new byte[0]), SYSTEM_RUNS),
+                    concat(abc(), random, runs()));
+
+            //A damaged block has to be noticed
+            byte[] damaged = compress(random);
+            damaged[damaged.length / 2] ^= 0x10;
+            boolean noticed = false;
+            try {
+                decompress(damaged, 1, 4096);
+            } catch (IOException e) {
+                noticed = true;
+            }
+            if(!noticed) throw new RuntimeException("Damaged bzip2 stream decoded without an error!");
+
+            bitInput(r);
+        } catch (IOException e) {
+            throw new RuntimeException("bzip2 test failed!", e);
+        }
+
+        log.info("Test passed");
+    }
+
+    static void check(String name, byte[] compressed, byte[] expected) throws IOException {
+        for(int threads: THREADS) {
+            //One byte at a time, and in bigger pieces
+            for(int readSize: new int[]{ 1, 4096 }) {
+                if(!Arrays.equals(decompress(compressed, threads, readSize), expected))
+                    throw new RuntimeException("bzip2 mismatch for " + name + " with " + threads + " threads, reading " + readSize + " bytes at a time!");
+            }
+        }
+    }
+
+    //Bits read one by one have to match the same bits read in groups, from any starting position
+    static void bitInput(Random r) throws IOException {
+        byte[] data = new byte[64];
+        for(int i = 0; i < data.length; i++) data[i] = (byte)r.nextInt();
+
+        for(int start = 0; start < 16; start++) {
+            ByteArrayBitInput bits = new ByteArrayBitInput(data, start, data.length * 8L);
+            ByteArrayBitInput groups = new ByteArrayBitInput(data, start, data.length * 8L);
+
+            while(groups.getPosition() + 8 <= data.length * 8L) {
+                int n = r.nextBetween(0, 8);
+                int expected = 0;
+                for(int i = 0; i < n; i++) expected = (expected << 1) | (bits.readBit() ? 1 : 0);
+
+                if(groups.readBits(n) != expected) throw new RuntimeException("Bit input mismatch starting at bit " + start + "!");
+            }
+        }
+
+        ByteArrayBitInput end = new ByteArrayBitInput(data, 5, 9);
+        end.readBits(4);
+        try {
+            end.readBit();
+            throw new RuntimeException("Bit input read past its end!");
+        } catch (EOFException ignored) { }
+    }
+
+    static byte[] decompress(byte[] compressed, int threads, int readSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (BZip2InputStream in = new BZip2InputStream(new ByteArrayInputStream(compressed), threads)) {
+            if(readSize == 1) {
+                int b;
+                while((b = in.read()) != -1) out.write(b);
+            } else {
+                byte[] buf = new byte[readSize];
+                int n;
+                while((n = in.read(buf)) != -1) out.write(buf, 0, n);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    //Smallest block size, so that all but the smallest inputs take a few blocks
+    static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (BZip2OutputStream bz = new BZip2OutputStream(out, new BZip2OutputStreamSettings().setBlockSize(1))) {
+            bz.write(data);
+        }
+
+        return out.toByteArray();
+    }
+
+    //Runs around the lengths at which bzip2 starts and restarts its run length encoding
+    static byte[] runs() {
+        int[] lengths = { 1, 2, 3, 4, 5, 6, 7, 254, 255, 256, 257, 258, 259, 260, 511, 1000 };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for(int i = 0; i < lengths.length; i++) {
+            for(int j = 0; j < lengths[i]; j++) out.write(i * 17);
+        }
+
+        return out.toByteArray();
+    }
+
+    static byte[] abc() {
+        byte[] data = new byte[250_000];
+        for(int i = 0; i < data.length; i++) data[i] = (byte) "abc".charAt(i % 3);
+        return data;
+    }
+
+    static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for(byte[] a: arrays) out.writeBytes(a);
+        return out.toByteArray();
+    }
+}
\ No newline at end of file
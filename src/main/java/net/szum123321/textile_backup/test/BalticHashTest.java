@@ -26,6 +26,11 @@ import net.szum123321.textile_backup.core.digest.BalticHash;
 public class BalticHashTest {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
     final static int TEST_LEN = 21377; //simple prime
+    final static int[] KNOWN_LENGTHS = { 0, 1, 31, 32, 33, 1000, TEST_LEN };
+    final static long[] KNOWN_VALUES = {
+            0xb56dd5107429fc74L, 0xa76ae88ded239650L, 0x8742459d1d59062eL, 0xee8db6a0cc476a7eL,
+            0x69882669e95cf3d6L, 0x7315b368651c5893L, 0xba0fde2d512b0af4L
+    };
     public static void run() throws RuntimeException {
         log.info("Running hash test");
         Random r = Random.create(2137);
@@ -39,9 +44,41 @@ public class BalticHashTest {
         for(int i = 0; i < 5*2; i++) x ^= randomHash(data, r);
         if(x != 0) throw new RuntimeException("Hash mismatch!");
 
+        //Fast path has to agree with feeding the bytes one by one, including all the tail lengths
+        for(int n = 0; n <= 3 * 32 + 1; n++) {
+            if(byteHash(data, n) != blockHash(data, n)) throw new RuntimeException("Hash mismatch at length " + n + "!");
+        }
+        if(byteHash(data, TEST_LEN) != blockHash(data, TEST_LEN)) throw new RuntimeException("Hash mismatch!");
+
+        //Values produced by the original implementation. These have to stay the same, or old backups won't verify
+        for(int i = 0; i < TEST_LEN; i++) data[i] = (byte)(i * 31 + 7);
+        for(int i = 0; i < KNOWN_LENGTHS.length; i++) {
+            if(blockHash(data, KNOWN_LENGTHS[i]) != KNOWN_VALUES[i])
+                throw new RuntimeException("Hash changed for length " + KNOWN_LENGTHS[i] + "!");
+        }
+
+        BalticHash h = new BalticHash();
+        h.update(new byte[]{ 1, 2, 3 });
+        h.update(0x1122334455667788L);
+        h.update(new byte[40]);
+        h.update(5L);
+        if(h.getValue() != 0x752072387a1acc5bL) throw new RuntimeException("Hash changed for mixed updates!");
+
         log.info("Test passed");
     }
 
+    static long byteHash(byte[] data, int n) {
+        BalticHash h = new BalticHash();
+        for(int i = 0; i < n; i++) h.update(data[i]);
+        return h.getValue();
+    }
+
+    static long blockHash(byte[] data, int n) {
+        BalticHash h = new BalticHash();
+        h.update(data, 0, n);
+        return h.getValue();
+    }
+
     static long randomHash(byte[] data, Random r) {
         int n = data.length;
 
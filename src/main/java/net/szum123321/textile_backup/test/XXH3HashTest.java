@@ -0,0 +1,72 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.test;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.digest.XXH3Hash;
+
+public class XXH3HashTest {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    final static int TEST_LEN = 21377; //simple prime
+    //Every size class of XXH3, plus a few lengths past the first block of stripes
+    final static int[] KNOWN_LENGTHS = { 0, 1, 3, 4, 8, 9, 16, 17, 128, 129, 240, 241, 1024, 1026, 2048, 4096, 6000, TEST_LEN };
+    //XXH3_64bits from libxxhash 0.8.1
+    final static long[] KNOWN_VALUES = {
+            0x2d06800538d394c2L, 0x4c5cca45d0f4811fL, 0x15f7093b173d005cL, 0xdca012f95811b6b9L,
+            0xdec6a9a43575982eL, 0xcbe393399f17ffbdL, 0x7e484c18d74895d0L, 0x208bde5ee2bed407L,
+            0xf92b70eaa21a6288L, 0xf8f76713f2bb60faL, 0xccc7375172c41f03L, 0x0b3b630948ce4a00L,
+            0x23bc880ebf0d29c6L, 0x72124d1d38f24414L, 0x19f6f9c987331373L, 0xa3c19f8174cde0bbL,
+            0x08d5ec75d0e9b04eL, 0xd141cb5246294c55L
+    };
+    //Enough for the hot loops to get compiled by C2, so it's the compiled code that gets checked
+    final static int WARMUP_ROUNDS = 20000;
+
+    public static void run() throws RuntimeException {
+        log.info("Running XXH3 test");
+
+        byte[] data = new byte[TEST_LEN];
+        for(int i = 0; i < TEST_LEN; i++) data[i] = (byte)(i * 31 + 7);
+
+        long x = 0;
+        for(int i = 0; i < WARMUP_ROUNDS; i++) x ^= hash(data, 1 + i % 4096, 1 + i % 300);
+        log.debug("Warm-up done: {}", x);
+
+        for(int i = 0; i < KNOWN_LENGTHS.length; i++) {
+            int n = KNOWN_LENGTHS[i];
+
+            if(hash(data, n, n + 1) != KNOWN_VALUES[i])
+                throw new RuntimeException("Hash mismatch for length " + n + "!");
+
+            //Same value no matter how the input is split up
+            for(int step: new int[]{ 1, 7, 64, 255, 256, 257, 1000 }) {
+                if(hash(data, n, step) != KNOWN_VALUES[i])
+                    throw new RuntimeException("Hash mismatch for length " + n + " in pieces of " + step + "!");
+            }
+        }
+
+        log.info("Test passed");
+    }
+
+    static long hash(byte[] data, int n, int step) {
+        XXH3Hash h = new XXH3Hash();
+        for(int p = 0; p < n; p += step) h.update(data, p, Math.min(step, n - p));
+        return h.getValue();
+    }
+}
@@ -0,0 +1,565 @@
+/* AT4J -- Archive file tools for Java -- http://www.at4j.org
+ * Copyright (C) 2009 Karl Gustafsson
+ *
+ * This file is a part of AT4J
+ *
+ * AT4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * AT4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.at4j.comp.bzip2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.at4j.support.io.ByteArrayBitInput;
+
+/**
+ * This is an {@link InputStream} for decompressing bzip2 data, using several
+ * threads.
+ * <p>
+ * bzip2 blocks are not byte aligned and their lengths are not stored anywhere,
+ * so the compressed data is scanned, bit by bit, for the block and end of
+ * stream magic numbers. The data between two of them is handed over to a
+ * decoder thread, and the decoded blocks are read back in order.
+ * <p>
+ * The block magic may also turn up inside of the compressed data. Decoding
+ * such a block runs past the end of the data it was given. It is then merged
+ * with the data that follows and decoded again, while the block that started
+ * at the false magic is thrown away.
+ * <p>
+ * Concatenated bzip2 streams are read one after another.
+ * <p>
+ * This stream is <i>not</i> safe for concurrent access by several reading
+ * threads.
+ * @see BZip2OutputStream
+ */
+public class BZip2InputStream extends InputStream
+{
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long EOS_MAGIC = 0x177245385090L;
+	private static final long MAGIC_MASK = (1L << 48) - 1;
+	private static final int MAGIC_LENGTH = 48;
+
+	private static final int READ_SIZE = 64 * 1024;
+	// Enough to check what follows an end of stream magic: the stream
+	// checksum, padding and the header of the next stream
+	private static final int LOOKAHEAD = 16;
+
+	private final InputStream m_wrapped;
+	private final ExecutorService m_executor;
+	private final int m_maxRegionsInFlight;
+	private final Deque<Region> m_inFlight = new ArrayDeque<Region>();
+
+	// Compressed data that has not been handed over to the decoders yet.
+	// m_buf[0] is byte m_bufStart of the input.
+	private byte[] m_buf = new byte[2 * READ_SIZE];
+	private int m_bufLen = 0;
+	private long m_bufStart = 0;
+	private int m_scanPos = 0;
+	// The last bits scanned
+	private long m_register = 0;
+	private int m_registerBits = 0;
+	private boolean m_inputEof = false;
+	private boolean m_scanFinished = false;
+
+	// The current stream
+	private int m_blockSize;
+	private long m_regionStart;
+
+	// Reading
+	private long m_expectedStart;
+	private int m_combinedChecksum = 0;
+	private byte[] m_current;
+	private int m_currentPos = 0;
+	private int m_currentLen = 0;
+	private boolean m_closed = false;
+
+	/**
+	 * Either a span of compressed data which should hold a single block, or
+	 * the end of a stream.
+	 */
+	private static final class Region
+	{
+		// Bit positions in the input
+		final long m_start;
+		final long m_end;
+		// The first bit of m_data is bit m_start & 7
+		final byte[] m_data;
+		final int m_blockSize;
+		// For the end of a stream
+		final boolean m_endOfStream;
+		final int m_streamChecksum;
+		final long m_nextStart;
+
+		Future<BlockDecoder.DecodedBlock> m_result;
+
+		Region(long start, long end, byte[] data, int blockSize)
+		{
+			this(start, end, data, blockSize, false, 0, 0);
+		}
+
+		Region(long start, long end, byte[] data, int blockSize, boolean endOfStream, int streamChecksum, long nextStart)
+		{
+			m_start = start;
+			m_end = end;
+			m_data = data;
+			m_blockSize = blockSize;
+			m_endOfStream = endOfStream;
+			m_streamChecksum = streamChecksum;
+			m_nextStart = nextStart;
+		}
+
+		BlockDecoder.DecodedBlock decode() throws IOException
+		{
+			long offset = m_start & 7;
+			try
+			{
+				return new BlockDecoder(new ByteArrayBitInput(m_data, offset, offset + m_end - m_start), m_blockSize).decode();
+			}
+			catch (RuntimeException e)
+			{
+				// Garbage in the data, most likely a block started at a false
+				// magic
+				throw new IOException("Corrupt bzip2 block", e);
+			}
+		}
+
+		/**
+		 * Join this region with the one that directly follows it.
+		 */
+		Region merge(Region next)
+		{
+			long firstByte = m_start >>> 3;
+			byte[] data = new byte[(int) (((next.m_end + 7) >>> 3) - firstByte)];
+			System.arraycopy(m_data, 0, data, 0, m_data.length);
+			// The byte they share is the same in both
+			System.arraycopy(next.m_data, 0, data, (int) ((next.m_start >>> 3) - firstByte), next.m_data.length);
+			return new Region(m_start, next.m_end, data, m_blockSize);
+		}
+	}
+
+	/**
+	 * Create a new bzip2 decompressing input stream.
+	 * @param wrapped The compressed data is read from this stream.
+	 * @param numberOfDecoderThreads The number of threads decoding blocks.
+	 * @throws IOException On errors reading the stream header, or if the data
+	 * is not bzip2 data.
+	 */
+	public BZip2InputStream(InputStream wrapped, int numberOfDecoderThreads) throws IOException
+	{
+		// Null check
+		wrapped.getClass();
+
+		if (numberOfDecoderThreads < 1)
+		{
+			throw new IllegalArgumentException("Invalid number of decoder threads " + numberOfDecoderThreads + ". Must be at least 1");
+		}
+
+		m_wrapped = wrapped;
+
+		fillBuffer();
+		if (!readStreamHeader(0))
+		{
+			throw new IOException("Not a bzip2 stream");
+		}
+		m_expectedStart = m_regionStart;
+
+		m_executor = Executors.newFixedThreadPool(numberOfDecoderThreads, r -> {
+			Thread t = new Thread(r, "bzip2 decoder");
+			t.setDaemon(true);
+			return t;
+		});
+		// Keep all threads busy while the reader is busy with a decoded block
+		m_maxRegionsInFlight = 2 * numberOfDecoderThreads;
+	}
+
+	private void assertNotClosed() throws IOException
+	{
+		if (m_closed)
+		{
+			throw new IOException("This stream is closed");
+		}
+	}
+
+	/**
+	 * Read more input into the buffer, dropping what has already been handed
+	 * over.
+	 */
+	private void fillBuffer() throws IOException
+	{
+		if (m_inputEof)
+		{
+			return;
+		}
+
+		int keepFrom = m_scanFinished ? m_scanPos : (int) Math.min(m_scanPos, Math.max(0, (m_regionStart >>> 3) - m_bufStart));
+		if (keepFrom > 0)
+		{
+			System.arraycopy(m_buf, keepFrom, m_buf, 0, m_bufLen - keepFrom);
+			m_bufLen -= keepFrom;
+			m_scanPos -= keepFrom;
+			m_bufStart += keepFrom;
+		}
+
+		if (m_buf.length - m_bufLen < READ_SIZE)
+		{
+			byte[] grown = new byte[Math.max(2 * m_buf.length, m_bufLen + READ_SIZE)];
+			System.arraycopy(m_buf, 0, grown, 0, m_bufLen);
+			m_buf = grown;
+		}
+
+		int n = m_wrapped.read(m_buf, m_bufLen, READ_SIZE);
+		if (n < 0)
+		{
+			m_inputEof = true;
+		}
+		else
+		{
+			m_bufLen += n;
+		}
+	}
+
+	/**
+	 * Parse a stream header at the given position in the buffer.
+	 * @return {@code false} if there is no more data.
+	 */
+	private boolean readStreamHeader(int pos) throws IOException
+	{
+		while (m_bufLen - pos < 4 && !m_inputEof)
+		{
+			fillBuffer();
+		}
+
+		if (m_bufLen == pos)
+		{
+			return false;
+		}
+
+		if (m_bufLen - pos < 4 || m_buf[pos] != 'B' || m_buf[pos + 1] != 'Z' || m_buf[pos + 2] != 'h' || m_buf[pos + 3] < '1' || m_buf[pos + 3] > '9')
+		{
+			throw new IOException("Invalid bzip2 stream header");
+		}
+
+		// bzip2 uses 1kb == 1000b
+		m_blockSize = (m_buf[pos + 3] - '0') * 100 * 1000;
+		m_scanPos = pos + 4;
+		m_regionStart = (m_bufStart + m_scanPos) * 8;
+		m_register = 0;
+		m_registerBits = 0;
+		return true;
+	}
+
+	private long getBits(long bitPos, int no)
+	{
+		long res = 0;
+		for (int i = 0; i < no; i++)
+		{
+			long p = bitPos + i - m_bufStart * 8;
+			res = (res << 1) | ((m_buf[(int) (p >>> 3)] >>> (7 - (int) (p & 7))) & 1);
+		}
+		return res;
+	}
+
+	private byte[] copyRegionData(long start, long end)
+	{
+		int from = (int) ((start >>> 3) - m_bufStart);
+		int to = (int) (((end + 7) >>> 3) - m_bufStart);
+		byte[] res = new byte[to - from];
+		System.arraycopy(m_buf, from, res, 0, res.length);
+		return res;
+	}
+
+	private void dispatch(final Region r)
+	{
+		if (!r.m_endOfStream)
+		{
+			r.m_result = m_executor.submit(r::decode);
+		}
+		m_inFlight.add(r);
+	}
+
+	/**
+	 * Scan the input until the next region is found and handed over.
+	 * @return {@code false} if there is nothing more to scan.
+	 */
+	private boolean scanNextRegion() throws IOException
+	{
+		while (!m_scanFinished)
+		{
+			while (m_scanPos < m_bufLen - LOOKAHEAD || (m_inputEof && m_scanPos < m_bufLen))
+			{
+				m_register = (m_register << 8) | (m_buf[m_scanPos++] & 0xFF);
+				m_registerBits += 8;
+
+				// Check each position at which the magic could end in this byte
+				for (int shift = 7; shift >= 0; shift--)
+				{
+					if (m_registerBits - shift < MAGIC_LENGTH)
+					{
+						continue;
+					}
+
+					long candidate = (m_register >>> shift) & MAGIC_MASK;
+					if (candidate != BLOCK_MAGIC && candidate != EOS_MAGIC)
+					{
+						continue;
+					}
+
+					long start = (m_bufStart + m_scanPos) * 8 - shift - MAGIC_LENGTH;
+					if (candidate == BLOCK_MAGIC)
+					{
+						if (start == m_regionStart)
+						{
+							// The first block of the stream
+							continue;
+						}
+						dispatch(new Region(m_regionStart, start, copyRegionData(m_regionStart, start), m_blockSize));
+						m_regionStart = start;
+						return true;
+					}
+					else if (handleEndOfStream(start))
+					{
+						return true;
+					}
+				}
+			}
+
+			if (m_inputEof)
+			{
+				throw new EOFException("Unexpected end of bzip2 stream");
+			}
+			fillBuffer();
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether the end of stream magic found at the given position really
+	 * is one. It has to be followed by the stream checksum, and then either
+	 * the end of the input or another stream.
+	 */
+	private boolean handleEndOfStream(long start) throws IOException
+	{
+		long checksumEnd = start + MAGIC_LENGTH + 32;
+		int next = (int) (((checksumEnd + 7) >>> 3) - m_bufStart);
+		if (next > m_bufLen)
+		{
+			return false;
+		}
+
+		boolean lastStream = m_inputEof && next == m_bufLen;
+		boolean followedByStream = next + 3 < m_bufLen && m_buf[next] == 'B' && m_buf[next + 1] == 'Z' && m_buf[next + 2] == 'h' && m_buf[next + 3] >= '1' && m_buf[next + 3] <= '9';
+		if (!lastStream && !followedByStream)
+		{
+			return false;
+		}
+
+		int checksum = (int) getBits(start + MAGIC_LENGTH, 32);
+		if (start > m_regionStart)
+		{
+			dispatch(new Region(m_regionStart, start, copyRegionData(m_regionStart, start), m_blockSize));
+		}
+		dispatch(new Region(start, checksumEnd, null, m_blockSize, true, checksum, (m_bufStart + next + 4) * 8));
+
+		if (lastStream || !readStreamHeader(next))
+		{
+			m_scanFinished = true;
+			m_scanPos = m_bufLen;
+		}
+		return true;
+	}
+
+	/**
+	 * Move on to the next decoded block.
+	 * @return {@code false} at the end of the data.
+	 */
+	private boolean nextBlock() throws IOException
+	{
+		while (true)
+		{
+			while (m_inFlight.size() < m_maxRegionsInFlight && scanNextRegion())
+			{
+				// Keep the decoders busy
+			}
+
+			Region r = m_inFlight.poll();
+			if (r == null)
+			{
+				return false;
+			}
+
+			if (r.m_start < m_expectedStart)
+			{
+				// This one started at a false magic inside of the previous
+				// block
+				if (r.m_result != null)
+				{
+					r.m_result.cancel(true);
+				}
+				continue;
+			}
+			else if (r.m_start > m_expectedStart)
+			{
+				throw new IOException("Corrupt bzip2 stream. Expected a block at bit " + m_expectedStart + ", got one at " + r.m_start);
+			}
+
+			if (r.m_endOfStream)
+			{
+				if (r.m_streamChecksum != m_combinedChecksum)
+				{
+					throw new IOException("bzip2 stream checksum mismatch. Expected " + Integer.toHexString(r.m_streamChecksum) + ", got " + Integer.toHexString(m_combinedChecksum));
+				}
+				m_combinedChecksum = 0;
+				m_expectedStart = r.m_nextStart;
+				continue;
+			}
+
+			BlockDecoder.DecodedBlock block = getResult(r);
+			while (block == null)
+			{
+				// The region ended at a false magic. Join it with the next one
+				// and try again.
+				while (m_inFlight.isEmpty() && scanNextRegion())
+				{
+					// Look for the next region
+				}
+
+				Region next = m_inFlight.poll();
+				if (next == null || next.m_endOfStream)
+				{
+					throw new EOFException("Unexpected end of bzip2 stream");
+				}
+				if (next.m_result != null)
+				{
+					next.m_result.cancel(true);
+				}
+
+				r = r.merge(next);
+				try
+				{
+					block = r.decode();
+				}
+				catch (EOFException e)
+				{
+					// Still too short
+				}
+			}
+
+			m_expectedStart = r.m_end;
+			m_combinedChecksum = ((m_combinedChecksum << 1) | (m_combinedChecksum >>> 31)) ^ block.m_checksum;
+			m_current = block.m_data;
+			m_currentLen = block.m_length;
+			m_currentPos = 0;
+			return true;
+		}
+	}
+
+	/**
+	 * @return The decoded block, or {@code null} if the region was too short
+	 * to hold the whole block.
+	 */
+	private BlockDecoder.DecodedBlock getResult(Region r) throws IOException
+	{
+		try
+		{
+			return r.m_result.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a bzip2 block", e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof EOFException)
+			{
+				return null;
+			}
+			else if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error decoding bzip2 block", e.getCause());
+		}
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		assertNotClosed();
+
+		while (m_currentPos >= m_currentLen)
+		{
+			if (!nextBlock())
+			{
+				return -1;
+			}
+		}
+		return m_current[m_currentPos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] barr, int off, int len) throws IOException, IndexOutOfBoundsException
+	{
+		assertNotClosed();
+
+		if (off < 0 || len < 0 || off + len > barr.length)
+		{
+			throw new IndexOutOfBoundsException("Invalid offset " + off + " or length " + len + " for an array of length " + barr.length);
+		}
+		if (len == 0)
+		{
+			return 0;
+		}
+
+		while (m_currentPos >= m_currentLen)
+		{
+			if (!nextBlock())
+			{
+				return -1;
+			}
+		}
+
+		int n = Math.min(len, m_currentLen - m_currentPos);
+		System.arraycopy(m_current, m_currentPos, barr, off, n);
+		m_currentPos += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		assertNotClosed();
+		return m_currentLen - m_currentPos;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (!m_closed)
+		{
+			m_closed = true;
+			m_executor.shutdownNow();
+			m_inFlight.clear();
+			m_current = null;
+			m_wrapped.close();
+		}
+	}
+}
@@ -0,0 +1,439 @@
+/* AT4J -- Archive file tools for Java -- http://www.at4j.org
+ * Copyright (C) 2009 Karl Gustafsson
+ *
+ * This file is a part of AT4J
+ *
+ * AT4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * AT4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.at4j.comp.bzip2;
+
+import java.io.IOException;
+
+import org.at4j.support.io.BitInput;
+
+/**
+ * This decodes a single bzip2 block, the reverse of {@link BlockEncoder}. The
+ * input must be positioned at the start of the block magic.
+ * <p>
+ * Blocks are independent of each other, so several of them can be decoded at
+ * the same time by different decoder objects.
+ * @see BZip2InputStream
+ */
+final class BlockDecoder
+{
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+
+	private static final int RUNA_SYMBOL = 0;
+	private static final int RUNB_SYMBOL = 1;
+	private static final int MAX_CODE_LENGTH = 20;
+	private static final int MAX_NO_OF_SELECTORS = 18002;
+	// RLE-encoded runs are not allowed to be longer than the block anyway
+	private static final int MAX_RUN_LENGTH_FACTOR = 2 * 1024 * 1024;
+
+	/**
+	 * The result of decoding a block.
+	 */
+	static final class DecodedBlock
+	{
+		final byte[] m_data;
+		final int m_length;
+		final int m_checksum;
+
+		DecodedBlock(byte[] data, int length, int checksum)
+		{
+			m_data = data;
+			m_length = length;
+			m_checksum = checksum;
+		}
+	}
+
+	private final BitInput m_in;
+	// The block size in bytes
+	private final int m_blockSize;
+
+	/**
+	 * @param in The input, positioned at the block magic.
+	 * @param blockSize The maximum block size, from the stream header, in
+	 * bytes.
+	 */
+	BlockDecoder(BitInput in, int blockSize)
+	{
+		m_in = in;
+		m_blockSize = blockSize;
+	}
+
+	private static IOException corrupt(String msg)
+	{
+		return new IOException("Corrupt bzip2 block: " + msg);
+	}
+
+	/**
+	 * Decode the block.
+	 * @return The decoded data.
+	 * @throws java.io.EOFException If the input ended before the end of the
+	 * block.
+	 * @throws IOException If the block is corrupt.
+	 */
+	DecodedBlock decode() throws IOException
+	{
+		long magic = ((long) m_in.readBitsLittleEndian(24) << 24) | m_in.readBitsLittleEndian(24);
+		if (magic != BLOCK_MAGIC)
+		{
+			throw corrupt("invalid block magic " + Long.toHexString(magic));
+		}
+
+		int checksum = m_in.readBitsLittleEndian(32);
+		if (m_in.readBit())
+		{
+			throw new IOException("Randomized bzip2 blocks are not supported");
+		}
+		int bwFirstPointer = m_in.readBitsLittleEndian(24);
+
+		// The bytes seen in the data, in the same way as BlockEncoder writes
+		// them
+		byte[] seqToUnseq = new byte[256];
+		int noOfSeenBytes = 0;
+		int segmentsWithData = m_in.readBitsLittleEndian(16);
+		for (int i = 0; i < 16; i++)
+		{
+			if ((segmentsWithData & (0x8000 >>> i)) != 0)
+			{
+				int seenData = m_in.readBitsLittleEndian(16);
+				for (int j = 0; j < 16; j++)
+				{
+					if ((seenData & (0x8000 >>> j)) != 0)
+					{
+						seqToUnseq[noOfSeenBytes++] = (byte) (i * 16 + j);
+					}
+				}
+			}
+		}
+		if (noOfSeenBytes == 0)
+		{
+			throw corrupt("no bytes used");
+		}
+
+		// RUNA, RUNB, the MTF symbols except for the first one and EOB
+		int alphabetSize = noOfSeenBytes + 2;
+		int eobSymbol = alphabetSize - 1;
+
+		int noOfTrees = m_in.readBits(3);
+		if (noOfTrees < 2 || noOfTrees > BlockEncoder.MAX_NO_OF_HUFFMAN_TREES)
+		{
+			throw corrupt("invalid number of Huffman trees " + noOfTrees);
+		}
+
+		byte[] selectors = readSelectors(noOfTrees);
+
+		int[][] limit = new int[noOfTrees][MAX_CODE_LENGTH + 2];
+		int[][] base = new int[noOfTrees][MAX_CODE_LENGTH + 2];
+		int[][] perm = new int[noOfTrees][alphabetSize];
+		int[] minLength = new int[noOfTrees];
+		for (int t = 0; t < noOfTrees; t++)
+		{
+			minLength[t] = readHuffmanTree(alphabetSize, limit[t], base[t], perm[t]);
+		}
+
+		// Huffman + MTF + RLE2 decoding. Each entry gets the byte in its lowest
+		// eight bits, the rest is used by the inverse BWT later on.
+		int[] tt = new int[m_blockSize];
+		int[] byteCounts = new int[256];
+		byte[] mtf = new byte[256];
+		for (int i = 0; i < 256; i++)
+		{
+			mtf[i] = (byte) i;
+		}
+
+		int len = 0;
+		int selectorIndex = 0;
+		int symbolsLeftInSegment = 0;
+		int tree = 0;
+		int run = 0;
+		int runFactor = 1;
+
+		while (true)
+		{
+			if (symbolsLeftInSegment == 0)
+			{
+				if (selectorIndex >= selectors.length)
+				{
+					throw corrupt("ran out of selectors");
+				}
+				tree = selectors[selectorIndex++];
+				symbolsLeftInSegment = BlockEncoder.NO_OF_SYMBOLS_PER_SEGMENT;
+			}
+			symbolsLeftInSegment--;
+
+			int symbol = readSymbol(limit[tree], base[tree], perm[tree], minLength[tree], alphabetSize);
+
+			if (symbol == RUNA_SYMBOL || symbol == RUNB_SYMBOL)
+			{
+				// The run length is written in bijective base 2
+				run += (symbol + 1) * runFactor;
+				runFactor <<= 1;
+				if (runFactor > MAX_RUN_LENGTH_FACTOR)
+				{
+					throw corrupt("too long run");
+				}
+				continue;
+			}
+
+			if (run > 0)
+			{
+				if (len + run > m_blockSize)
+				{
+					throw corrupt("block too long");
+				}
+				int b = seqToUnseq[mtf[0] & 0xFF] & 0xFF;
+				byteCounts[b] += run;
+				while (run-- > 0)
+				{
+					tt[len++] = b;
+				}
+				run = 0;
+				runFactor = 1;
+			}
+
+			if (symbol == eobSymbol)
+			{
+				break;
+			}
+
+			if (len >= m_blockSize)
+			{
+				throw corrupt("block too long");
+			}
+
+			// Move to front
+			int index = symbol - 1;
+			byte val = mtf[index];
+			System.arraycopy(mtf, 0, mtf, 1, index);
+			mtf[0] = val;
+
+			int b = seqToUnseq[val & 0xFF] & 0xFF;
+			byteCounts[b]++;
+			tt[len++] = b;
+		}
+
+		if (bwFirstPointer >= len)
+		{
+			throw corrupt("invalid start pointer " + bwFirstPointer + " for block of length " + len);
+		}
+
+		return undoBurrowsWheelerAndRunLengths(tt, len, byteCounts, bwFirstPointer, checksum);
+	}
+
+	private byte[] readSelectors(int noOfTrees) throws IOException
+	{
+		int noOfSelectors = m_in.readBitsLittleEndian(15);
+		if (noOfSelectors == 0)
+		{
+			throw corrupt("no selectors");
+		}
+
+		byte[] mtf = new byte[noOfTrees];
+		for (int i = 0; i < noOfTrees; i++)
+		{
+			mtf[i] = (byte) i;
+		}
+
+		// Newer bzip2 versions may write more selectors than can ever be used.
+		// These are just skipped.
+		byte[] res = new byte[Math.min(noOfSelectors, MAX_NO_OF_SELECTORS)];
+		for (int i = 0; i < noOfSelectors; i++)
+		{
+			// Unary coded MTF index
+			int index = 0;
+			while (m_in.readBit())
+			{
+				index++;
+				if (index >= noOfTrees)
+				{
+					throw corrupt("invalid selector");
+				}
+			}
+
+			if (i < res.length)
+			{
+				byte val = mtf[index];
+				System.arraycopy(mtf, 0, mtf, 1, index);
+				mtf[0] = val;
+				res[i] = val;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Read the code lengths of a Huffman tree and build the canonical decoding
+	 * tables, just like bzip2 does.
+	 * @return The shortest code length.
+	 */
+	private int readHuffmanTree(int alphabetSize, int[] limit, int[] base, int[] perm) throws IOException
+	{
+		int[] lengths = new int[alphabetSize];
+		int length = m_in.readBits(5);
+		for (int i = 0; i < alphabetSize; i++)
+		{
+			while (true)
+			{
+				if (length < 1 || length > MAX_CODE_LENGTH)
+				{
+					throw corrupt("invalid Huffman code length " + length);
+				}
+				if (!m_in.readBit())
+				{
+					break;
+				}
+				length += m_in.readBit() ? -1 : 1;
+			}
+			lengths[i] = length;
+		}
+
+		int minLength = MAX_CODE_LENGTH;
+		int maxLength = 0;
+		for (int l : lengths)
+		{
+			minLength = Math.min(minLength, l);
+			maxLength = Math.max(maxLength, l);
+		}
+
+		int pp = 0;
+		for (int l = minLength; l <= maxLength; l++)
+		{
+			for (int i = 0; i < alphabetSize; i++)
+			{
+				if (lengths[i] == l)
+				{
+					perm[pp++] = i;
+				}
+			}
+		}
+
+		for (int l : lengths)
+		{
+			base[l + 1]++;
+		}
+		for (int i = 1; i < base.length; i++)
+		{
+			base[i] += base[i - 1];
+		}
+
+		int vec = 0;
+		for (int l = minLength; l <= maxLength; l++)
+		{
+			vec += base[l + 1] - base[l];
+			limit[l] = vec - 1;
+			vec <<= 1;
+		}
+		// Longer codes are invalid, and end up in corrupt()
+		for (int l = maxLength + 1; l < limit.length; l++)
+		{
+			limit[l] = -1;
+		}
+		for (int l = minLength + 1; l <= maxLength; l++)
+		{
+			base[l] = ((limit[l - 1] + 1) << 1) - base[l];
+		}
+		return minLength;
+	}
+
+	private int readSymbol(int[] limit, int[] base, int[] perm, int minLength, int alphabetSize) throws IOException
+	{
+		int length = minLength;
+		int code = m_in.readBitsLittleEndian(length);
+		while (code > limit[length])
+		{
+			length++;
+			if (length > MAX_CODE_LENGTH)
+			{
+				throw corrupt("invalid Huffman code");
+			}
+			code = (code << 1) | (m_in.readBit() ? 1 : 0);
+		}
+
+		int index = code - base[length];
+		if (index < 0 || index >= alphabetSize)
+		{
+			throw corrupt("invalid Huffman code");
+		}
+		return perm[index];
+	}
+
+	private DecodedBlock undoBurrowsWheelerAndRunLengths(int[] tt, int len, int[] byteCounts, int bwFirstPointer, int checksum) throws IOException
+	{
+		// Link every position to the next one in the original data
+		int[] next = new int[256];
+		for (int i = 1; i < 256; i++)
+		{
+			next[i] = next[i - 1] + byteCounts[i - 1];
+		}
+		for (int i = 0; i < len; i++)
+		{
+			int b = tt[i] & 0xFF;
+			tt[next[b]++] |= i << 8;
+		}
+
+		// Undo the initial run length encoding at the same time. Four equal
+		// bytes are followed by the number of extra repeats.
+		byte[] res = new byte[len + (len >> 2)];
+		int resLen = 0;
+		CRC crc = new CRC();
+
+		int pos = tt[bwFirstPointer] >>> 8;
+		int prev = -1;
+		int noOfEqual = 0;
+		for (int i = 0; i < len; i++)
+		{
+			pos = tt[pos];
+			int b = pos & 0xFF;
+			pos >>>= 8;
+
+			int repeats = 1;
+			if (noOfEqual == 4)
+			{
+				repeats = b;
+				b = prev;
+				noOfEqual = 0;
+			}
+			else if (b == prev)
+			{
+				noOfEqual++;
+			}
+			else
+			{
+				prev = b;
+				noOfEqual = 1;
+			}
+
+			if (resLen + repeats > res.length)
+			{
+				byte[] grown = new byte[Math.max(res.length * 2, resLen + repeats)];
+				System.arraycopy(res, 0, grown, 0, resLen);
+				res = grown;
+			}
+			for (int j = 0; j < repeats; j++)
+			{
+				res[resLen++] = (byte) b;
+				crc.update(b);
+			}
+		}
+
+		if (crc.getValue() != checksum)
+		{
+			throw new IOException("bzip2 block checksum mismatch. Expected " + Integer.toHexString(checksum) + ", got " + Integer.toHexString(crc.getValue()));
+		}
+		return new DecodedBlock(res, resLen, checksum);
+	}
+}
@@ -0,0 +1,214 @@
+/* AT4J -- Archive file tools for Java -- http://www.at4j.org
+ * Copyright (C) 2009 Karl Gustafsson
+ *
+ * This file is a part of AT4J
+ *
+ * AT4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * AT4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.at4j.support.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This is an {@link InputStream} that implements {@link BitInput} on top of a
+ * range of bits in a byte array. Bits are read in the same order as
+ * {@link LittleEndianBitOutputStream} writes them.
+ * <p>
+ * The range does not have to start or end at a byte boundary. Trying to read
+ * past its end throws an {@link EOFException}.
+ */
+public class ByteArrayBitInput extends InputStream implements BitInput
+{
+	private final byte[] m_data;
+	private final long m_end;
+
+	// The position of the next bit to read
+	private long m_pos;
+
+	/**
+	 * @param data The data.
+	 * @param startBit The position of the first bit to read.
+	 * @param endBit The position after the last bit to read.
+	 */
+	public ByteArrayBitInput(byte[] data, long startBit, long endBit)
+	{
+		if (startBit < 0 || startBit > endBit || endBit > data.length * 8L)
+		{
+			throw new IndexOutOfBoundsException("Invalid bit range " + startBit + ".." + endBit + " for " + data.length + " bytes");
+		}
+
+		m_data = data;
+		m_pos = startBit;
+		m_end = endBit;
+	}
+
+	/**
+	 * Get the position of the next bit to read.
+	 */
+	public long getPosition()
+	{
+		return m_pos;
+	}
+
+	private void assertAvailable(int no) throws IOException
+	{
+		if (m_pos + no > m_end)
+		{
+			throw new EOFException("Tried to read " + no + " bits at " + m_pos + ", but the input ends at " + m_end);
+		}
+	}
+
+	private void assertAtByteBoundary() throws IOException
+	{
+		if ((m_pos & 7) != 0)
+		{
+			throw new IOException("Not at byte boundary. Position: " + m_pos);
+		}
+	}
+
+	// Reads up to 32 bits without any checks
+	private int readUnchecked(int no)
+	{
+		int res = 0;
+		while (no > 0)
+		{
+			int bitsLeftInByte = 8 - (int) (m_pos & 7);
+			int take = Math.min(bitsLeftInByte, no);
+			int bits = ((m_data[(int) (m_pos >>> 3)] & 0xFF) >>> (bitsLeftInByte - take)) & ((1 << take) - 1);
+			res = (res << take) | bits;
+			m_pos += take;
+			no -= take;
+		}
+		return res;
+	}
+
+	public boolean isAtEof()
+	{
+		return m_pos >= m_end;
+	}
+
+	public void skipToByteBoundary() throws IOException
+	{
+		long next = (m_pos + 7) & ~7L;
+		if (next > m_end)
+		{
+			throw new EOFException("At the end of the input");
+		}
+		m_pos = next;
+	}
+
+	public boolean readBit() throws IOException
+	{
+		if (m_pos >= m_end)
+		{
+			throw new EOFException("At the end of the input");
+		}
+
+		boolean res = ((m_data[(int) (m_pos >>> 3)] >>> (7 - (int) (m_pos & 7))) & 1) != 0;
+		m_pos++;
+		return res;
+	}
+
+	public int readBits(int no) throws IndexOutOfBoundsException, IOException
+	{
+		if (no < 0 || no > 8)
+		{
+			throw new IndexOutOfBoundsException("Invalid number of bits " + no + ". Must be between 0 and 8 (inclusive)");
+		}
+
+		assertAvailable(no);
+		return readUnchecked(no);
+	}
+
+	public int readBitsLittleEndian(int no) throws IndexOutOfBoundsException, IOException
+	{
+		if (no < 0 || no > 32)
+		{
+			throw new IndexOutOfBoundsException("Invalid number of bits " + no + ". Must be between 0 and 32 (inclusive)");
+		}
+
+		assertAvailable(no);
+		return readUnchecked(no);
+	}
+
+	public byte[] readBytes(byte[] barr, int off, int len) throws IndexOutOfBoundsException, IOException
+	{
+		if (off < 0 || len < 0 || off + len > barr.length)
+		{
+			throw new IndexOutOfBoundsException("Invalid offset " + off + " or length " + len + " for an array of length " + barr.length);
+		}
+
+		assertAvailable(len * 8);
+		for (int i = 0; i < len; i++)
+		{
+			barr[off + i] = (byte) readUnchecked(8);
+		}
+		return barr;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		assertAtByteBoundary();
+		if (m_pos + 8 > m_end)
+		{
+			return -1;
+		}
+		return readUnchecked(8);
+	}
+
+	@Override
+	public int read(byte[] barr) throws IOException
+	{
+		return read(barr, 0, barr.length);
+	}
+
+	@Override
+	public int read(byte[] barr, int offset, int len) throws IndexOutOfBoundsException, IOException
+	{
+		assertAtByteBoundary();
+		if (offset < 0 || len < 0 || offset + len > barr.length)
+		{
+			throw new IndexOutOfBoundsException("Invalid offset " + offset + " or length " + len + " for an array of length " + barr.length);
+		}
+
+		int n = (int) Math.min(len, (m_end - m_pos) / 8);
+		if (n == 0 && len > 0)
+		{
+			return -1;
+		}
+
+		System.arraycopy(m_data, (int) (m_pos >>> 3), barr, offset, n);
+		m_pos += n * 8L;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		assertAtByteBoundary();
+		long res = Math.max(0, Math.min(n, (m_end - m_pos) / 8));
+		m_pos += res * 8;
+		return res;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		assertAtByteBoundary();
+		return (int) Math.min(Integer.MAX_VALUE, (m_end - m_pos) / 8);
+	}
+}